@@ -17,12 +17,17 @@ package io.fabric8.tooling.archetype;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -32,6 +37,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -53,7 +59,16 @@ public class ArchetypeUtils {
     private static final Set<String> excludeExtensions = new HashSet<String>(Arrays.asList("iml", "iws", "ipr"));
     private static final Set<String> sourceCodeDirPaths = new HashSet<String>();
 
-    private DocumentBuilder documentBuilder;
+    /**
+     * A {@link DocumentBuilder} is not thread safe so lets keep one per thread, so that
+     * archetypes can be generated concurrently
+     */
+    private final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            return createDocumentBuilder();
+        }
+    };
     private TransformerFactory transformerFactory;
 
     static {
@@ -65,11 +80,14 @@ public class ArchetypeUtils {
     }
 
     public ArchetypeUtils() {
+        this.transformerFactory = TransformerFactory.newInstance();
+    }
+
+    protected static DocumentBuilder createDocumentBuilder() {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         dbf.setNamespaceAware(true);
         try {
-            this.documentBuilder = dbf.newDocumentBuilder();
-            this.transformerFactory = TransformerFactory.newInstance();
+            return dbf.newDocumentBuilder();
         } catch (ParserConfigurationException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
@@ -136,6 +154,79 @@ public class ArchetypeUtils {
         return null;
     }
 
+    /**
+     * Returns a hash of the contents of the given directory, ignoring any files which are not valid source files
+     * and the given top level file names (such as <code>target</code>).
+     * <p/>
+     * The hash is a Merkle tree hash; a file is hashed by its contents and a directory by the names and hashes of
+     * its children in name order, so the hash only changes if a file is added, removed, renamed or modified.
+     */
+    public String hashSourceTree(File directory, Set<String> excludeNames) throws IOException {
+        return toHex(hashSourceTree(directory, excludeNames, newDigest()));
+    }
+
+    protected byte[] hashSourceTree(File file, Set<String> excludeNames, MessageDigest digest) throws IOException {
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    File child = new File(file, name);
+                    if (isValidSourceFileOrDir(child) && !excludeNames.contains(name)) {
+                        byte[] childHash = hashSourceTree(child, Collections.<String>emptySet(), newDigest());
+                        digest.update((child.isDirectory() ? "tree " : "blob ").getBytes(StandardCharsets.UTF_8));
+                        digest.update(name.getBytes(StandardCharsets.UTF_8));
+                        digest.update((byte) 0);
+                        digest.update(childHash);
+                    }
+                }
+            }
+        } else {
+            byte[] buffer = new byte[8192];
+            try (FileInputStream in = new FileInputStream(file)) {
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, count);
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    protected static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the number of threads configured via the given system property; or the default value if the
+     * property is not set or is not a number
+     */
+    public static int parallelismFromSystemProperty(String property, int defaultValue) {
+        String value = System.getProperty(property, "").trim();
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid value for system property " + property + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
     /**
      * Returns true if this file is a valid source file; so
      * excluding things like .svn directories and whatnot
@@ -189,7 +280,7 @@ public class ArchetypeUtils {
 
     public Document parseXml(InputSource inputSource) {
         try {
-            return documentBuilder.parse(inputSource);
+            return documentBuilder.get().parse(inputSource);
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage(), e);
         }
@@ -200,7 +291,7 @@ public class ArchetypeUtils {
      */
     public void writeXmlDocument(Document document, File file) throws IOException {
         try {
-            Transformer tr = transformerFactory.newTransformer();
+            Transformer tr = newTransformer();
             tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             tr.setOutputProperty(OutputKeys.INDENT, "yes");
             FileOutputStream fileOutputStream = new FileOutputStream(file);
@@ -216,7 +307,7 @@ public class ArchetypeUtils {
      */
     public String writeXmlDocumentAsString(Document document) throws IOException {
         try {
-            Transformer tr = transformerFactory.newTransformer();
+            Transformer tr = newTransformer();
             tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             tr.setOutputProperty(OutputKeys.INDENT, "yes");
             StringWriter writer = new StringWriter();
@@ -229,6 +320,15 @@ public class ArchetypeUtils {
         }
     }
 
+    /**
+     * Creates a new {@link Transformer}; the factory itself is not guaranteed to be thread safe
+     */
+    protected Transformer newTransformer() throws TransformerConfigurationException {
+        synchronized (transformerFactory) {
+            return transformerFactory.newTransformer();
+        }
+    }
+
     public String firstElementText(Element root, String elementName, String defaultValue) {
         // prefer direct children first
         String answer = null;
@@ -16,6 +16,7 @@
 package io.fabric8.tooling.archetype.builder;
 
 import io.fabric8.tooling.archetype.ArchetypeUtils;
+import io.fabric8.tooling.archetype.builder.GitHelpers.SingleRef;
 import io.fabric8.utils.*;
 import io.fabric8.utils.Objects;
 import org.eclipse.jgit.api.CloneCommand;
@@ -29,8 +30,15 @@ import org.w3c.dom.*;
 import org.xml.sax.InputSource;
 
 import java.io.*;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
 import java.util.*;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -43,12 +51,23 @@ public class ArchetypeBuilder extends AbstractBuilder{
     public static final String ARCHETYPE_RESOURCES_PATH = "src/main/resources/archetype-resources";
     public static final String ARCHETYPE_RESOURCES_XML = "src/main/resources-filtered/META-INF/maven/archetype-metadata.xml";
     public static final String FUNKTION_YML = "funktion.yml";
+    public static final String PARALLELISM_PROPERTY = "repo.parallelism";
+    public static final String CACHE_PROPERTY = "repo.cache";
+    /**
+     * Records the inputs of a generated archetype; it lives in the generated (and git ignored) src folder
+     */
+    public static final String ARCHETYPE_MANIFEST = "src/.archetype-manifest.properties";
+    private static final String MANIFEST_VERSION = "1";
 
     private static final String[] specialVersions = new String[]{
             "camel.version", "cxf.version", "cxf.plugin.version", "activemq.version",
             "karaf.version", "spring-boot.version", "weld.version"
     };
 
+    private static final Set<String> manifestExcludes = new HashSet<String>(Arrays.asList("target", "build"));
+
+    private static String builderFingerprint;
+
     private static final Set<String> sourceFileNames = new HashSet<String>(Arrays.asList("application.properties"));
 
     private static final Set<String> sourceFileExtensions = new HashSet<String>(Arrays.asList(
@@ -81,6 +100,58 @@ public class ArchetypeBuilder extends AbstractBuilder{
 
     private final Map<String, String> versionProperties = new HashMap<>();
 
+    private int parallelism = ArchetypeUtils.parallelismFromSystemProperty(PARALLELISM_PROPERTY, 1);
+    private GitRepoCache repoCache = repoCacheFromSystemProperty();
+    private boolean singleRefClones = GitHelpers.isSingleRefEnabled();
+
+    /**
+     * Returns the number of git repositories which are cloned and converted to archetypes at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public GitRepoCache getRepoCache() {
+        return repoCache;
+    }
+
+    /**
+     * Sets the persistent cache of git clones to use; or null to clone each repository from scratch
+     */
+    public void setRepoCache(GitRepoCache repoCache) {
+        this.repoCache = repoCache;
+    }
+
+    public boolean isSingleRefClones() {
+        return singleRefClones;
+    }
+
+    /**
+     * Sets whether only the requested tag or branch of a repository is cloned, rather than all its branches and tags
+     */
+    public void setSingleRefClones(boolean singleRefClones) {
+        this.singleRefClones = singleRefClones;
+        if (repoCache != null) {
+            repoCache.setSingleRef(singleRefClones);
+        }
+    }
+
+    /**
+     * Returns the git clone cache in the directory configured via the {@link #CACHE_PROPERTY} system property
+     * or null if no cache directory is configured
+     */
+    protected static GitRepoCache repoCacheFromSystemProperty() {
+        String value = System.getProperty(CACHE_PROPERTY, "").trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        return new GitRepoCache(new File(value));
+    }
+
     /**
      * Iterates through all projects in the given github organisation and generates an archetype for it
      */
@@ -95,13 +166,15 @@ public class ArchetypeBuilder extends AbstractBuilder{
         if (cloneParentDir.exists()) {
             Files.recursiveDelete(cloneParentDir);
         }
+        List<GitRepo> repos = new ArrayList<>();
         for (Map.Entry<String, GHRepository> entry : entries) {
             String repoName = entry.getKey();
             GHRepository repo = entry.getValue();
             String url = repo.getGitTransportUrl();
 
-            generateArchetypeFromGitRepo(outputDir, dirs, cloneParentDir, repoName, url, null);
+            repos.add(new GitRepo(repoName, url, null));
         }
+        generateArchetypesFromGitRepos(outputDir, dirs, cloneParentDir, repos);
     }
 
     /**
@@ -118,11 +191,72 @@ public class ArchetypeBuilder extends AbstractBuilder{
             properties.load(is);
         }
 
+        List<GitRepo> repos = new ArrayList<>();
         for (Map.Entry<Object, Object> entry : properties.entrySet()) {
             LinkedList<String> values = new LinkedList<>(Arrays.asList(((String) entry.getValue()).split("\\|")));
             String gitrepo = values.removeFirst();
             String tag = values.isEmpty() ? null : values.removeFirst();
-            generateArchetypeFromGitRepo(outputDir, dirs, cloneParentDir, (String)entry.getKey(), gitrepo, tag);
+            repos.add(new GitRepo((String) entry.getKey(), gitrepo, tag));
+        }
+        generateArchetypesFromGitRepos(outputDir, dirs, cloneParentDir, repos);
+    }
+
+    /**
+     * Generates the archetypes for the given git repositories; either one after another or, if the
+     * parallelism is greater than one, concurrently using a bounded pool of worker threads.
+     * <p/>
+     * When running concurrently a failure to generate one archetype does not stop the others; all
+     * failures are reported together once every repository has been processed.
+     */
+    protected void generateArchetypesFromGitRepos(final File outputDir, List<String> dirs, final File cloneParentDir, List<GitRepo> repos) throws IOException {
+        int threads = Math.min(parallelism, repos.size());
+        if (threads <= 1) {
+            for (GitRepo repo : repos) {
+                generateArchetypeFromGitRepo(outputDir, dirs, cloneParentDir, repo.getName(), repo.getUrl(), repo.getTag());
+            }
+            return;
+        }
+
+        LOG.info("Generating " + repos.size() + " archetypes using " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // each repo collects its own dirs which we then add in the order of the repos
+            // so that the resulting list of modules does not depend on the thread scheduling
+            Map<GitRepo, Future<List<String>>> futures = new LinkedHashMap<>();
+            for (final GitRepo repo : repos) {
+                futures.put(repo, executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        List<String> repoDirs = new ArrayList<>();
+                        generateArchetypeFromGitRepo(outputDir, repoDirs, cloneParentDir, repo.getName(), repo.getUrl(), repo.getTag());
+                        return repoDirs;
+                    }
+                }));
+            }
+
+            Map<String, Throwable> failures = new TreeMap<>();
+            for (Map.Entry<GitRepo, Future<List<String>>> entry : futures.entrySet()) {
+                String repoName = entry.getKey().getName();
+                try {
+                    dirs.addAll(entry.getValue().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    LOG.error("Failed to generate archetype for repo " + repoName + " due: " + cause.getMessage(), cause);
+                    failures.put(repoName, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while generating archetype for repo " + repoName);
+                }
+            }
+            if (!failures.isEmpty()) {
+                IOException exception = new IOException("Failed to generate archetypes for repos: " + failures.keySet());
+                for (Throwable failure : failures.values()) {
+                    exception.addSuppressed(failure);
+                }
+                throw exception;
+            }
+        } finally {
+            executor.shutdownNow();
         }
     }
 
@@ -132,38 +266,46 @@ public class ArchetypeBuilder extends AbstractBuilder{
         File destDir = new File(projectDir, ARCHETYPE_RESOURCES_PATH);
         //File cloneDir = new File(projectDir, ARCHETYPE_RESOURCES_PATH);
         File cloneDir = new File(cloneParentDir, archetypeFolderName);
-        cloneDir.mkdirs();
-
-        System.out.println("Cloning repo " + repoURL + " to " + cloneDir);
-        cloneDir.getParentFile().mkdirs();
-        if (cloneDir.exists()) {
-            Files.recursiveDelete(cloneDir);
-        }
-
-        CloneCommand command = Git.cloneRepository().setCloneAllBranches(false).setURI(repoURL).setDirectory(cloneDir);
-
-        try {
-            command.call();
-        } catch (Throwable e) {
-            LOG.error("Failed to command remote repo " + repoURL + " due: " + e.getMessage(), e);
-            throw new IOException("Failed to command remote repo " + repoURL + " due: " + e.getMessage(), e);
-        }
 
         // Try to checkout a specific tag.
         if (tag == null) {
             tag = System.getProperty("repo.tag", "").trim();
         }
-        if( !tag.isEmpty() ) {
-            try {
-                Git.open(cloneDir).checkout().setName(tag).call();
-            } catch (Throwable e) {
-                LOG.error("Failed checkout " + tag + " due: " + e.getMessage(), e);
-                throw new IOException("Failed checkout " + tag + " due: " + e.getMessage(), e);
+
+        if (repoCache != null) {
+            repoCache.export(repoURL, tag, cloneDir);
+        } else {
+            cloneDir.mkdirs();
+
+            System.out.println("Cloning repo " + repoURL + " to " + cloneDir);
+            cloneDir.getParentFile().mkdirs();
+            if (cloneDir.exists()) {
+                Files.recursiveDelete(cloneDir);
+            }
+
+            if (!singleRefClone(repoURL, tag, cloneDir)) {
+                CloneCommand command = Git.cloneRepository().setCloneAllBranches(false).setURI(repoURL).setDirectory(cloneDir);
+
+                try {
+                    command.call();
+                } catch (Throwable e) {
+                    LOG.error("Failed to command remote repo " + repoURL + " due: " + e.getMessage(), e);
+                    throw new IOException("Failed to command remote repo " + repoURL + " due: " + e.getMessage(), e);
+                }
+
+                if( !tag.isEmpty() ) {
+                    try {
+                        Git.open(cloneDir).checkout().setName(tag).call();
+                    } catch (Throwable e) {
+                        LOG.error("Failed checkout " + tag + " due: " + e.getMessage(), e);
+                        throw new IOException("Failed checkout " + tag + " due: " + e.getMessage(), e);
+                    }
+                }
             }
-        }
 
-        File gitFolder = new File(cloneDir, ".git");
-        Files.recursiveDelete(gitFolder);
+            File gitFolder = new File(cloneDir, ".git");
+            Files.recursiveDelete(gitFolder);
+        }
 
         File pom = new File(cloneDir, "pom.xml");
         if (pom.exists()) {
@@ -185,6 +327,34 @@ public class ArchetypeBuilder extends AbstractBuilder{
     }
 
 
+    /**
+     * Clones just the given tag or branch of the repository, without any other branches or tags, and checks it out.
+     *
+     * @return false if the clone should fall back to cloning the whole repository; for example if single ref clones
+     * are disabled, no tag is specified or the remote repository does not advertise the tag
+     */
+    protected boolean singleRefClone(String repoURL, String tag, File cloneDir) {
+        if (!singleRefClones || tag.isEmpty()) {
+            return false;
+        }
+        try {
+            SingleRef ref = GitHelpers.findRemoteRef(repoURL, tag);
+            if (ref == null) {
+                LOG.info("Remote repo " + repoURL + " has no tag or branch " + tag + " so cloning the whole repo");
+                return false;
+            }
+            try (Git git = GitHelpers.initWithRemote(repoURL, cloneDir)) {
+                GitHelpers.fetchSingleRef(git, ref);
+                GitHelpers.checkoutCommit(git, ref.getLocalRef());
+            }
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Failed to clone just " + tag + " of " + repoURL + " so cloning the whole repo: " + e.getMessage());
+            Files.recursiveDelete(cloneDir);
+            return false;
+        }
+    }
+
     /**
      * Iterates through all nested directories and generates archetypes for all found, non-pom Maven projects.
      *
@@ -262,17 +432,6 @@ public class ArchetypeBuilder extends AbstractBuilder{
         File outputSrcDir = new File(archetypeDir, "src");
         File outputGitIgnoreFile = new File(archetypeDir, ".gitignore");
 
-        if (clean) {
-            LOG.debug("Removing generated archetype dir {}", archetypeDir);
-            Files.recursiveDelete(archetypeDir);
-        } else if (outputSrcDir.exists() && outputGitIgnoreFile.exists() && fileIncludesLine(outputGitIgnoreFile, "src")) {
-            LOG.debug("Removing generated src dir {}", outputSrcDir);
-            Files.recursiveDelete(outputSrcDir);
-            if (outputSrcDir.exists()) {
-                throw new RuntimeException("The projectDir " + outputSrcDir + " should not exist!");
-            }
-        }
-
         // GenerateArchetypes dir for archetype resources - copied from original maven project. Sources will have
         // package names replaced with variable placeholders - to make them parameterizable during
         // mvn archetype:generate
@@ -281,8 +440,6 @@ public class ArchetypeBuilder extends AbstractBuilder{
         // during the build of archetype project
         File metadataXmlOutFile = new File(archetypeDir, ARCHETYPE_RESOURCES_XML);
 
-        Replacement replaceFunction = null;
-
         File mainSrcDir = null;
         for (String it : ArchetypeUtils.sourceCodeDirNames) {
             File dir = new File(srcDir, it);
@@ -291,13 +448,51 @@ public class ArchetypeBuilder extends AbstractBuilder{
                 break;
             }
         }
+        File mainRootPackage = mainSrcDir != null ? archetypeUtils.findRootPackage(mainSrcDir) : null;
+
+        File testSrcDir = null;
+        for (String it : ArchetypeUtils.sourceCodeDirNames) {
+            File dir = new File(testDir, it);
+            if (dir.exists()) {
+                testSrcDir = dir;
+                break;
+            }
+        }
+        File testRootPackage = testSrcDir != null ? archetypeUtils.findRootPackage(testSrcDir) : null;
+
+        // lets avoid regenerating the archetype if nothing has changed since it was last generated
+        File manifestFile = new File(archetypeDir, ARCHETYPE_MANIFEST);
+        Properties manifest = createManifest(projectDir, mainSrcDir, mainRootPackage, testSrcDir, testRootPackage);
+        boolean generated = archetypeOutputDir.isDirectory() && metadataXmlOutFile.isFile() && new File(archetypeDir, "pom.xml").isFile();
+        if (!clean && generated && manifest.equals(loadManifest(manifestFile))) {
+            LOG.info("Archetype " + archetypeDir.getName() + " is up to date with " + projectDir);
+            if (!outputGitIgnoreFile.exists()) {
+                ArchetypeUtils.writeGitIgnore(outputGitIgnoreFile);
+            }
+            return;
+        }
+
+        if (clean) {
+            LOG.debug("Removing generated archetype dir {}", archetypeDir);
+            Files.recursiveDelete(archetypeDir);
+        } else if (outputSrcDir.exists() && outputGitIgnoreFile.exists() && fileIncludesLine(outputGitIgnoreFile, "src")) {
+            LOG.debug("Removing generated src dir {}", outputSrcDir);
+            Files.recursiveDelete(outputSrcDir);
+            if (outputSrcDir.exists()) {
+                throw new RuntimeException("The projectDir " + outputSrcDir + " should not exist!");
+            }
+        } else if (manifestFile.exists()) {
+            manifestFile.delete();
+        }
+
+        Replacement replaceFunction = null;
 
         Set<String> extraIgnorefiles = new HashSet<>();
 
         if (mainSrcDir != null) {
             // lets find the first projectDir which contains more than one child
             // to find the root-most package
-            File rootPackage = archetypeUtils.findRootPackage(mainSrcDir);
+            File rootPackage = mainRootPackage;
 
             if (rootPackage != null) {
                 String packagePath = archetypeUtils.relativePath(mainSrcDir, rootPackage);
@@ -320,17 +515,8 @@ public class ArchetypeBuilder extends AbstractBuilder{
             }
         }
 
-        File testSrcDir = null;
-        for (String it : ArchetypeUtils.sourceCodeDirNames) {
-            File dir = new File(testDir, it);
-            if (dir.exists()) {
-                testSrcDir = dir;
-                break;
-            }
-        }
-
         if (testSrcDir != null) {
-            File rootPackage = archetypeUtils.findRootPackage(testSrcDir);
+            File rootPackage = testRootPackage;
 
             if (rootPackage != null) {
                 String packagePath = archetypeUtils.relativePath(testSrcDir, rootPackage);
@@ -365,6 +551,87 @@ public class ArchetypeBuilder extends AbstractBuilder{
         if (!outputGitIgnoreFile.exists()) {
             ArchetypeUtils.writeGitIgnore(outputGitIgnoreFile);
         }
+
+        storeManifest(manifestFile, manifest);
+    }
+
+    /**
+     * Creates the manifest of the inputs used to generate an archetype; if these have not changed since the
+     * archetype was last generated then there is no need to generate it again.
+     */
+    protected Properties createManifest(File projectDir, File mainSrcDir, File mainRootPackage, File testSrcDir, File testRootPackage) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("manifest.version", MANIFEST_VERSION);
+        manifest.setProperty("builder.version", builderVersion());
+        manifest.setProperty("indent", indent);
+        if (mainRootPackage != null) {
+            manifest.setProperty("main.package", archetypeUtils.relativePath(mainSrcDir, mainRootPackage).replace(File.separatorChar, '.'));
+        }
+        if (testRootPackage != null) {
+            manifest.setProperty("test.package", archetypeUtils.relativePath(testSrcDir, testRootPackage).replace(File.separatorChar, '.'));
+        }
+        manifest.setProperty("source.hash", archetypeUtils.hashSourceTree(projectDir, manifestExcludes));
+        return manifest;
+    }
+
+    /**
+     * Returns the version of this builder; the version of the jar if we have one or the version of the build.
+     * A SNAPSHOT version also has a hash of the builder's jar or classes, so that the archetypes are generated
+     * again whenever the builder changes between releases.
+     */
+    protected String builderVersion() {
+        String version = ArchetypeBuilder.class.getPackage().getImplementationVersion();
+        if (Strings.isNullOrBlank(version)) {
+            version = System.getProperty("project.version", "");
+        }
+        if (version.endsWith("-SNAPSHOT")) {
+            String fingerprint = builderFingerprint();
+            if (Strings.isNotBlank(fingerprint)) {
+                version += "+" + fingerprint;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Returns the hash of the jar or classes directory this builder was loaded from; or an empty string if it
+     * cannot be found
+     */
+    protected static synchronized String builderFingerprint() {
+        if (builderFingerprint == null) {
+            builderFingerprint = "";
+            try {
+                CodeSource codeSource = ArchetypeBuilder.class.getProtectionDomain().getCodeSource();
+                File location = codeSource != null && codeSource.getLocation() != null
+                        ? new File(codeSource.getLocation().toURI()) : null;
+                if (location != null && location.exists()) {
+                    builderFingerprint = new ArchetypeUtils().hashSourceTree(location, Collections.<String>emptySet());
+                }
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                LOG.warn("Could not hash the archetype builder classes so changes to a SNAPSHOT builder will not "
+                        + "regenerate the archetypes due: " + e.getMessage());
+            }
+        }
+        return builderFingerprint;
+    }
+
+    protected Properties loadManifest(File manifestFile) {
+        Properties manifest = new Properties();
+        if (manifestFile.isFile()) {
+            try (FileInputStream in = new FileInputStream(manifestFile)) {
+                manifest.load(in);
+            } catch (IOException e) {
+                LOG.warn("Failed to load " + manifestFile + ". " + e, e);
+            }
+        }
+        return manifest;
+    }
+
+    protected void storeManifest(File manifestFile, Properties manifest) throws IOException {
+        manifestFile.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(manifestFile)) {
+            manifest.store(out, "Generated by the archetype builder; delete this file to force the archetype to be regenerated");
+        }
     }
 
     /**
@@ -866,4 +1133,36 @@ public class ArchetypeBuilder extends AbstractBuilder{
             return "Replacement(" + pattern + ")";
         }
     }
+
+    /**
+     * A git repository to create an archetype from
+     */
+    protected static class GitRepo {
+        private final String name;
+        private final String url;
+        private final String tag;
+
+        public GitRepo(String name, String url, String tag) {
+            this.name = name;
+            this.url = url;
+            this.tag = tag;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        @Override
+        public String toString() {
+            return "GitRepo(" + name + " " + url + (tag != null ? " " + tag : "") + ")";
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import io.fabric8.utils.IOHelpers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the files which let clients and mirrors fetch a catalog file conditionally, next to the file itself:
+ * <ul>
+ *     <li><code>.gz</code> a gzip compressed copy to serve to clients which accept gzip</li>
+ *     <li><code>.sha256</code> the SHA-256 of the file in the format of <code>sha256sum</code></li>
+ *     <li><code>.etag</code> an ETag derived from the SHA-256, so it only changes when the contents change</li>
+ * </ul>
+ * As the catalog is written in a sorted order, an unchanged set of archetypes always gives the same ETag. The files
+ * are not rewritten if they are already up to date, so their last modified times stay the same too.
+ */
+public class CatalogArtifacts {
+
+    public static Logger LOG = LoggerFactory.getLogger(CatalogArtifacts.class);
+
+    public static final String GZIP_SUFFIX = ".gz";
+    public static final String SHA256_SUFFIX = ".sha256";
+    public static final String ETAG_SUFFIX = ".etag";
+
+    private final File file;
+    private final String sha256;
+
+    protected CatalogArtifacts(File file, String sha256) {
+        this.file = file;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Writes the compressed copy, checksum and ETag of the given file if they are missing or out of date
+     */
+    public static CatalogArtifacts write(File file) throws IOException {
+        byte[] data = java.nio.file.Files.readAllBytes(file.toPath());
+        String sha256 = CatalogCache.hash(data);
+        CatalogArtifacts answer = new CatalogArtifacts(file, sha256);
+        File checksumFile = answer.getChecksumFile();
+        String checksum = sha256 + "  " + file.getName() + "\n";
+        if (checksumFile.isFile() && checksum.equals(IOHelpers.readFully(checksumFile))
+                && answer.getGzipFile().isFile() && answer.getETagFile().isFile()) {
+            LOG.debug("Catalog artifacts of " + file + " are up to date");
+            return answer;
+        }
+
+        try (OutputStream out = new BestCompressionGZIPOutputStream(new FileOutputStream(answer.getGzipFile()))) {
+            out.write(data);
+        }
+        IOHelpers.writeFully(answer.getETagFile(), answer.getETag());
+        // the checksum is written last so that it is only up to date once all the other files are
+        IOHelpers.writeFully(checksumFile, checksum);
+        LOG.info("Wrote compressed copy, checksum and ETag " + answer.getETag() + " of " + file);
+        return answer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the SHA-256 of the file in hex
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * Returns the quoted ETag of the file
+     */
+    public String getETag() {
+        return "\"" + sha256.substring(0, 32) + "\"";
+    }
+
+    public File getGzipFile() {
+        return new File(file.getPath() + GZIP_SUFFIX);
+    }
+
+    public File getChecksumFile() {
+        return new File(file.getPath() + SHA256_SUFFIX);
+    }
+
+    public File getETagFile() {
+        return new File(file.getPath() + ETAG_SUFFIX);
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogArtifacts(" + file + " " + getETag() + ")";
+    }
+
+    /**
+     * As the file is compressed once and served many times it is worth compressing it as much as possible
+     */
+    private static class BestCompressionGZIPOutputStream extends GZIPOutputStream {
+        BestCompressionGZIPOutputStream(OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
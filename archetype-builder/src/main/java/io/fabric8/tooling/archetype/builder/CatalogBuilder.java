@@ -21,7 +21,6 @@ import io.fabric8.utils.Files;
 import io.fabric8.utils.IOHelpers;
 import io.fabric8.utils.Objects;
 import io.fabric8.utils.Strings;
-import org.apache.commons.text.StringEscapeUtils;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.kohsuke.github.GHOrganization;
@@ -38,7 +37,16 @@ import org.xml.sax.InputSource;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  * This class is a replacement for <code>mvn archetype:create-from-project</code> without dependencies to
@@ -48,17 +56,28 @@ public class CatalogBuilder extends AbstractBuilder {
 
     public static Logger LOG = LoggerFactory.getLogger(CatalogBuilder.class);
 
+    public static final String PARALLELISM_PROPERTY = "catalog.parallelism";
+    public static final String CATALOG_NAMESPACE = "http://maven.apache.org/plugins/maven-archetype-plugin/archetype-catalog/1.0.0";
+    public static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
     private File bomFile;
     private File catalogXmlFile;
-    private PrintWriter printWriter;
+    private File indexFile;
+    private final List<CatalogEntry> catalogEntries = new ArrayList<>();
+    private Writer writer;
+    private XMLStreamWriter xmlWriter;
     private final Map<String, String> versionProperties = new HashMap<>();
 
     private File archetypesPomFile;
     private Set<String> archetypesPomArtifactIds;
-    private Set<String> missingArtifactIds = new TreeSet<>();
+    private final Set<String> missingArtifactIds = new ConcurrentSkipListSet<>();
+    private int parallelism = ArchetypeUtils.parallelismFromSystemProperty(PARALLELISM_PROPERTY, 1);
+    private CatalogCache catalogCache = catalogCacheFromSystemProperty();
 
     public CatalogBuilder(File catalogXmlFile) {
         this.catalogXmlFile = catalogXmlFile;
+        this.indexFile = new File(catalogXmlFile.getParentFile(), CatalogIndex.INDEX_FILE_NAME);
     }
 
     public Set<String> getMissingArtifactIds() {
@@ -69,6 +88,54 @@ public class CatalogBuilder extends AbstractBuilder {
         this.bomFile = bomFile;
     }
 
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Sets the file the JSON index of the catalog is written to, next to the catalog by default; or null to not write an index
+     */
+    public void setIndexFile(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Returns the number of archetype poms which are read at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public CatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+
+    /**
+     * Sets the persistent cache of the entries read from the archetype poms; or null to read every pom
+     */
+    public void setCatalogCache(CatalogCache catalogCache) {
+        this.catalogCache = catalogCache;
+    }
+
+    /**
+     * Returns the catalog cache in the file configured via the {@link CatalogCache#CACHE_PROPERTY} system property,
+     * the {@link CatalogCache#DEFAULT_FILE} if it is not set or null if it is set to an empty value
+     */
+    protected static CatalogCache catalogCacheFromSystemProperty() {
+        String value = System.getProperty(CatalogCache.CACHE_PROPERTY);
+        if (value == null) {
+            return CatalogCache.load(CatalogCache.DEFAULT_FILE);
+        }
+        if (value.trim().isEmpty()) {
+            return null;
+        }
+        return CatalogCache.load(new File(value.trim()));
+    }
+
     /**
      * Starts generation of Archetype Catalog (see: http://maven.apache.org/xsd/archetype-catalog-1.0.0.xsd)
      *
@@ -80,30 +147,33 @@ public class CatalogBuilder extends AbstractBuilder {
         }
         catalogXmlFile.getParentFile().mkdirs();
         LOG.info("Writing catalog: " + catalogXmlFile);
-        printWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(catalogXmlFile), "UTF-8"));
-
-        printWriter.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-            "<archetype-catalog xmlns=\"http://maven.apache.org/plugins/maven-archetype-plugin/archetype-catalog/1.0.0\"\n" +
-            indent + indent + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
-            indent + indent + "xsi:schemaLocation=\"http://maven.apache.org/plugins/maven-archetype-plugin/archetype-catalog/1.0.0 http://maven.apache.org/xsd/archetype-catalog-1.0.0.xsd\">\n" +
-            indent + "<archetypes>");
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(catalogXmlFile), "UTF-8"));
+        try {
+            xmlWriter = OUTPUT_FACTORY.createXMLStreamWriter(writer);
+            xmlWriter.writeStartDocument("UTF-8", "1.0");
+            xmlWriter.writeCharacters("\n");
+            xmlWriter.setDefaultNamespace(CATALOG_NAMESPACE);
+            xmlWriter.writeStartElement(CATALOG_NAMESPACE, "archetype-catalog");
+            xmlWriter.writeDefaultNamespace(CATALOG_NAMESPACE);
+            xmlWriter.writeNamespace("xsi", XSI_NAMESPACE);
+            xmlWriter.writeAttribute(XSI_NAMESPACE, "schemaLocation", CATALOG_NAMESPACE + " http://maven.apache.org/xsd/archetype-catalog-1.0.0.xsd");
+            xmlWriter.writeCharacters("\n" + indent);
+            xmlWriter.writeStartElement(CATALOG_NAMESPACE, "archetypes");
+        } catch (XMLStreamException e) {
+            IOHelpers.close(writer);
+            throw new IOException("Failed to write catalog " + catalogXmlFile + " due: " + e.getMessage(), e);
+        }
 
         if (bomFile != null && bomFile.exists()) {
-            // read all properties of the bom, so we have default values for ${ } placeholders
-            String text = IOHelpers.readFully(bomFile);
-            Document doc = archetypeUtils.parseXml(new InputSource(new StringReader(text)));
-            Element root = doc.getDocumentElement();
-
-            // lets load all the properties defined in the <properties> element in the bom pom.
-            NodeList propertyElements = root.getElementsByTagName("properties");
-            if (propertyElements.getLength() > 0)  {
-                Element propertyElement = (Element) propertyElements.item(0);
-                NodeList children = propertyElement.getChildNodes();
-                for (int cn = 0; cn < children.getLength(); cn++) {
-                    Node e = children.item(cn);
-                    if (e instanceof Element) {
-                        versionProperties.put(e.getNodeName(), e.getTextContent());
-                    }
+            byte[] data = java.nio.file.Files.readAllBytes(bomFile.toPath());
+            String hash = catalogCache != null ? CatalogCache.hash(data) : null;
+            Map<String, String> cached = catalogCache != null ? catalogCache.getBomProperties(hash) : null;
+            if (cached != null) {
+                versionProperties.putAll(cached);
+            } else {
+                loadBomProperties(new String(data, "UTF-8"));
+                if (catalogCache != null) {
+                    catalogCache.putBomProperties(hash, versionProperties);
                 }
             }
             if (LOG.isDebugEnabled()) {
@@ -114,6 +184,27 @@ public class CatalogBuilder extends AbstractBuilder {
         }
     }
 
+    /**
+     * Reads all properties of the bom, so we have default values for ${ } placeholders
+     */
+    protected void loadBomProperties(String text) {
+        Document doc = archetypeUtils.parseXml(new InputSource(new StringReader(text)));
+        Element root = doc.getDocumentElement();
+
+        // lets load all the properties defined in the <properties> element in the bom pom.
+        NodeList propertyElements = root.getElementsByTagName("properties");
+        if (propertyElements.getLength() > 0)  {
+            Element propertyElement = (Element) propertyElements.item(0);
+            NodeList children = propertyElement.getChildNodes();
+            for (int cn = 0; cn < children.getLength(); cn++) {
+                Node e = children.item(cn);
+                if (e instanceof Element) {
+                    versionProperties.put(e.getNodeName(), e.getTextContent());
+                }
+            }
+        }
+    }
+
     protected Set<String> loadArchetypesPomArtifactIds(File archetypesPomFile) throws IOException {
         Set<String> answer = new TreeSet<>();
         if (!archetypesPomFile.isFile() || !archetypesPomFile.exists()) {
@@ -144,42 +235,233 @@ public class CatalogBuilder extends AbstractBuilder {
     /**
      * Completes generation of Archetype Catalog.
      */
-    public void close() {
-        printWriter.println(indent + "</archetypes>\n" +
-                "</archetype-catalog>");
-        printWriter.close();
+    public void close() throws IOException {
+        try {
+            xmlWriter.writeCharacters("\n" + indent);
+            xmlWriter.writeEndElement();
+            xmlWriter.writeCharacters("\n");
+            xmlWriter.writeEndElement();
+            xmlWriter.writeCharacters("\n");
+            xmlWriter.writeEndDocument();
+            xmlWriter.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write catalog " + catalogXmlFile + " due: " + e.getMessage(), e);
+        } finally {
+            writer.close();
+        }
+        if (indexFile != null) {
+            LOG.info("Writing catalog index: " + indexFile);
+            new CatalogIndex(catalogEntries).write(indexFile);
+        }
+        if (catalogCache != null) {
+            catalogCache.save();
+        }
     }
 
-    protected void addArchetypeMetaData(File pom, String outputName) throws FileNotFoundException {
-        Document doc = archetypeUtils.parseXml(new InputSource(new FileReader(pom)));
-        Element root = doc.getDocumentElement();
+    protected void addArchetypeMetaData(File pom, String outputName) throws IOException {
+        CatalogEntry entry = readArchetypeMetaData(pom, outputName);
+        if (entry != null) {
+            addArchetype(entry);
+        }
+    }
+
+    /**
+     * Adds the archetypes in the given directories to the catalog, sorted by artifactId, groupId and version so
+     * that the catalog does not depend on the order of the directories. The poms are read concurrently if the
+     * parallelism is greater than one.
+     */
+    public void addArchetypeMetaData(List<File> archetypeDirs) throws IOException {
+        addArchetypes(archetypeDirs, new EntryReader() {
+            @Override
+            public CatalogEntry read(File dir) throws IOException {
+                return readArchetypeMetaData(new File(dir, "pom.xml"), dir.getName());
+            }
+        });
+    }
 
-        String groupId = archetypeUtils.firstElementText(root, "groupId", "io.fabric8.archetypes");
-        String artifactId = archetypeUtils.firstElementText(root, "artifactId", outputName);
-        String description = archetypeUtils.firstElementText(root, "description", "");
-        String version = "";
+    /**
+     * Adds all the versions of the archetypes published in the given local Maven repository to the catalog,
+     * reading just the metadata of each jar rather than the archetype sources
+     */
+    public void addArchetypesFromRepository(File repositoryDir) throws IOException {
+        RepositoryCatalogScanner scanner = new RepositoryCatalogScanner(repositoryDir);
+        List<File> jars = scanner.findJars();
+        LOG.info("Scanning " + jars.size() + " jars in " + repositoryDir + " for archetypes");
+        addArchetypes(jars, new EntryReader() {
+            @Override
+            public CatalogEntry read(File jar) throws IOException {
+                try {
+                    return RepositoryCatalogScanner.readArchetypeJar(jar);
+                } catch (IOException e) {
+                    LOG.warn("Ignoring " + jar + " as it could not be read due: " + e.getMessage());
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a catalog entry from a file; or returns null if the file should not be in the catalog
+     */
+    protected interface EntryReader {
+        CatalogEntry read(File file) throws IOException;
+    }
 
-        NodeList parents = root.getElementsByTagName("parent");
-        if (parents.getLength() > 0) {
-            version = archetypeUtils.firstElementText((Element) parents.item(0), "version", "");
+    /**
+     * Reads the catalog entries of the given files, concurrently if the parallelism is greater than one,
+     * and adds them to the catalog sorted by artifactId, groupId and version
+     */
+    protected void addArchetypes(List<File> files, final EntryReader reader) throws IOException {
+        List<File> sortedFiles = new ArrayList<>(files);
+        Collections.sort(sortedFiles);
+        List<CatalogEntry> entries = new ArrayList<>();
+        int threads = Math.min(parallelism, sortedFiles.size());
+        if (threads <= 1) {
+            for (File file : sortedFiles) {
+                CatalogEntry entry = reader.read(file);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } else {
+            LOG.info("Reading " + sortedFiles.size() + " archetypes using " + threads + " threads");
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                Map<File, Future<CatalogEntry>> futures = new LinkedHashMap<>();
+                for (final File file : sortedFiles) {
+                    futures.put(file, executor.submit(new Callable<CatalogEntry>() {
+                        @Override
+                        public CatalogEntry call() throws Exception {
+                            return reader.read(file);
+                        }
+                    }));
+                }
+                for (Map.Entry<File, Future<CatalogEntry>> future : futures.entrySet()) {
+                    try {
+                        CatalogEntry entry = future.getValue().get();
+                        if (entry != null) {
+                            entries.add(entry);
+                        }
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        throw new IOException("Failed to read archetype " + future.getKey() + " due: " + cause.getMessage(), cause);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading archetype " + future.getKey());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
         }
-        if (version.length() == 0) {
-            version = archetypeUtils.firstElementText(root, "version", "");
+
+        Collections.sort(entries);
+        for (CatalogEntry entry : entries) {
+            addArchetype(entry);
         }
+    }
 
+    /**
+     * Reads the catalog entry of an archetype from its pom, returning null if the archetype is not a module of the
+     * archetypes pom. This is safe to call from many threads at once.
+     */
+    protected CatalogEntry readArchetypeMetaData(File pom, String outputName) throws IOException {
+        CatalogEntry entry;
+        if (catalogCache != null) {
+            byte[] data = java.nio.file.Files.readAllBytes(pom.toPath());
+            String path = pom.getCanonicalPath();
+            String hash = CatalogCache.hash(data);
+            entry = catalogCache.getEntry(path, hash);
+            if (entry == null) {
+                entry = parseArchetypeMetaData(new ByteArrayInputStream(data), outputName);
+                catalogCache.putEntry(path, hash, entry);
+            }
+        } else {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(pom))) {
+                entry = parseArchetypeMetaData(in, outputName);
+            }
+        }
+
+        String artifactId = entry.getArtifactId();
         if (archetypesPomArtifactIds != null) {
             if (!archetypesPomArtifactIds.contains(artifactId)) {
                 LOG.warn("Not adding archetype: " + artifactId + " to the  catalog as it is not included in the " + archetypesPomFile);
                 missingArtifactIds.add(artifactId);
-                return;
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the catalog entry of an archetype from the contents of its pom, using the name of its directory
+     * if the pom has no artifactId
+     */
+    protected static CatalogEntry parseArchetypeMetaData(InputStream pom, String outputName) throws IOException {
+        PomMetadata metadata = PomMetadata.read(pom);
+        String groupId = metadata.getGroupId() == null ? "io.fabric8.archetypes" : metadata.getGroupId();
+        String artifactId = metadata.getArtifactId() == null ? outputName : metadata.getArtifactId();
+        String description = metadata.getDescription() == null ? "" : metadata.getDescription();
+        String version = metadata.getArchetypeVersion() == null ? "" : metadata.getArchetypeVersion();
+        return new CatalogEntry(groupId, artifactId, version, description);
+    }
+
+    protected void addArchetype(CatalogEntry entry) throws IOException {
+        addArchetype(entry.getGroupId(), entry.getArtifactId(), entry.getVersion(), entry.getDescription());
+    }
+
+    /**
+     * Writes an archetype to the catalog, escaping the values as need be
+     */
+    protected void addArchetype(String groupId, String artifactId, String version, String description) throws IOException {
+        catalogEntries.add(new CatalogEntry(groupId, artifactId, version, description));
+        try {
+            xmlWriter.writeCharacters("\n" + indent + indent);
+            xmlWriter.writeStartElement(CATALOG_NAMESPACE, "archetype");
+            writeElement("groupId", groupId);
+            writeElement("artifactId", artifactId);
+            writeElement("version", version);
+            writeElement("description", description);
+            xmlWriter.writeCharacters("\n" + indent + indent);
+            xmlWriter.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write archetype " + artifactId + " to catalog " + catalogXmlFile + " due: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeElement(String name, String value) throws XMLStreamException {
+        xmlWriter.writeCharacters("\n" + indent + indent + indent);
+        xmlWriter.writeStartElement(CATALOG_NAMESPACE, name);
+        xmlWriter.writeCharacters(removeInvalidXmlChars(value));
+        xmlWriter.writeEndElement();
+    }
+
+    /**
+     * Removes the characters which cannot appear in an XML 1.0 document at all, even escaped
+     */
+    protected static String removeInvalidXmlChars(String text) {
+        StringBuilder answer = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean valid = c == 0x9 || c == 0xA || c == 0xD || (c >= 0x20 && c <= 0xFFFD);
+            if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                if (answer != null) {
+                    answer.append(c).append(text.charAt(i + 1));
+                }
+                i++;
+                continue;
+            }
+            if (Character.isSurrogate(c)) {
+                valid = false;
+            }
+            if (!valid && answer == null) {
+                answer = new StringBuilder(text.length());
+                answer.append(text, 0, i);
+            } else if (valid && answer != null) {
+                answer.append(c);
             }
         }
-        printWriter.println(String.format(indent + indent + "<archetype>\n" +
-            indent + indent + indent + "<groupId>%s</groupId>\n" +
-            indent + indent + indent + "<artifactId>%s</artifactId>\n" +
-            indent + indent + indent + "<version>%s</version>\n" +
-            indent + indent + indent + "<description>%s</description>\n" +
-            indent + indent + "</archetype>", groupId, artifactId, version, StringEscapeUtils.escapeXml10(description)));
+        return answer != null ? answer.toString() : text;
     }
 
     public void setArchetypesPomFile(File archetypesPomFile) {
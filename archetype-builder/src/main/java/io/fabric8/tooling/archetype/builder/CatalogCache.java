@@ -0,0 +1,270 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.fabric8.tooling.archetype.ArchetypeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent cache of the catalog entries read from archetype poms, keyed by the path of the pom and the hash
+ * of its contents, along with the properties of the BOM keyed by the hash of the BOM.
+ * <p/>
+ * Only the poms which have changed since the last build are parsed again. Entries which were not used by a build
+ * which read poms are dropped when the cache is saved, so the cache does not grow as archetypes are removed.
+ */
+public class CatalogCache {
+
+    public static Logger LOG = LoggerFactory.getLogger(CatalogCache.class);
+
+    public static final String CACHE_PROPERTY = "catalog.cache";
+
+    /**
+     * The cache file used if the {@link #CACHE_PROPERTY} system property is not set; it is kept outside of the
+     * build so that a clean build does not read every pom again
+     */
+    public static final File DEFAULT_FILE = new File(System.getProperty("user.home"), ".fabric8/archetype-catalog-cache.json");
+
+    // bump when the format of the cache or the way entries are read from the poms changes
+    private static final int FORMAT_VERSION = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private final File file;
+    private final ConcurrentMap<String, CachedEntry> entries = new ConcurrentHashMap<>();
+    private final Set<String> used = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile String bomHash;
+    private volatile Map<String, String> bomProperties;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public CatalogCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns a cache loaded from the given file; or an empty cache if the file does not exist or cannot be read
+     */
+    public static CatalogCache load(File file) {
+        CatalogCache answer = new CatalogCache(file);
+        if (file.isFile()) {
+            try {
+                CacheData data = MAPPER.readValue(file, CacheData.class);
+                if (data.getFormatVersion() == FORMAT_VERSION) {
+                    if (data.getEntries() != null) {
+                        answer.entries.putAll(data.getEntries());
+                    }
+                    answer.bomHash = data.getBomHash();
+                    answer.bomProperties = data.getBomProperties();
+                } else {
+                    LOG.info("Ignoring catalog cache " + file + " written in an older format");
+                }
+            } catch (IOException e) {
+                LOG.warn("Ignoring catalog cache " + file + " as it could not be read due: " + e.getMessage());
+            }
+        }
+        return answer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the cached entry of the pom with the given path if its contents have the given hash; otherwise null
+     */
+    public CatalogEntry getEntry(String pomPath, String hash) {
+        used.add(pomPath);
+        CachedEntry cached = entries.get(pomPath);
+        if (cached != null && hash.equals(cached.getHash()) && cached.getEntry() != null) {
+            hits.incrementAndGet();
+            return cached.getEntry();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void putEntry(String pomPath, String hash, CatalogEntry entry) {
+        used.add(pomPath);
+        entries.put(pomPath, new CachedEntry(hash, entry));
+    }
+
+    /**
+     * Returns the cached properties of the BOM if its contents have the given hash; otherwise null
+     */
+    public Map<String, String> getBomProperties(String hash) {
+        return hash.equals(bomHash) ? bomProperties : null;
+    }
+
+    public void putBomProperties(String hash, Map<String, String> properties) {
+        bomProperties = new LinkedHashMap<>(properties);
+        bomHash = hash;
+    }
+
+    /**
+     * Returns how many poms were found in the cache
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns how many poms had to be parsed as they were not in the cache or had changed
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Writes the entries used since the cache was loaded, replacing the cache file atomically. If no poms were
+     * looked up, such as when the catalog is built from the jars of a maven repository, every entry is kept.
+     */
+    public void save() throws IOException {
+        CacheData data = new CacheData();
+        data.setFormatVersion(FORMAT_VERSION);
+        data.setBomHash(bomHash);
+        data.setBomProperties(bomProperties);
+        Map<String, CachedEntry> usedEntries = new TreeMap<>();
+        boolean pomsRead = !used.isEmpty();
+        for (Map.Entry<String, CachedEntry> entry : entries.entrySet()) {
+            if (!pomsRead || used.contains(entry.getKey())) {
+                usedEntries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        data.setEntries(usedEntries);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            MAPPER.writeValue(tmp, data);
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        LOG.info("Saved catalog cache " + file + " with " + usedEntries.size() + " entries (" + hits + " hits, " + misses + " misses)");
+    }
+
+    /**
+     * Returns the SHA-256 hash of the given contents in hex
+     */
+    public static String hash(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return ArchetypeUtils.toHex(digest.digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogCache(" + file + ")";
+    }
+
+    /**
+     * The contents of the cache file
+     */
+    public static class CacheData {
+        private int formatVersion;
+        private String bomHash;
+        private Map<String, String> bomProperties;
+        private Map<String, CachedEntry> entries;
+
+        public int getFormatVersion() {
+            return formatVersion;
+        }
+
+        public void setFormatVersion(int formatVersion) {
+            this.formatVersion = formatVersion;
+        }
+
+        public String getBomHash() {
+            return bomHash;
+        }
+
+        public void setBomHash(String bomHash) {
+            this.bomHash = bomHash;
+        }
+
+        public Map<String, String> getBomProperties() {
+            return bomProperties;
+        }
+
+        public void setBomProperties(Map<String, String> bomProperties) {
+            this.bomProperties = bomProperties;
+        }
+
+        public Map<String, CachedEntry> getEntries() {
+            return entries;
+        }
+
+        public void setEntries(Map<String, CachedEntry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * The catalog entry read from a pom with the hash of the pom
+     */
+    public static class CachedEntry {
+        private String hash;
+        private CatalogEntry entry;
+
+        public CachedEntry() {
+        }
+
+        public CachedEntry(String hash, CatalogEntry entry) {
+            this.hash = hash;
+            this.entry = entry;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+
+        public CatalogEntry getEntry() {
+            return entry;
+        }
+
+        public void setEntry(CatalogEntry entry) {
+            this.entry = entry;
+        }
+    }
+}
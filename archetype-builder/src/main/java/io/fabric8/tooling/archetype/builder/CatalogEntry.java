@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+/**
+ * An archetype in the archetype catalog.
+ * <p/>
+ * Entries are ordered by artifactId, groupId and then version so that a catalog written in this order does not
+ * depend on the order the archetypes were found in. Versions are ordered as maven orders them, so
+ * <code>1.9</code> comes before <code>1.10</code> and <code>1.0-SNAPSHOT</code> before <code>1.0</code>.
+ */
+public class CatalogEntry implements Comparable<CatalogEntry> {
+
+    private String groupId;
+    private String artifactId;
+    private String version;
+    private String description;
+
+    public CatalogEntry() {
+    }
+
+    public CatalogEntry(String groupId, String artifactId, String version, String description) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.description = description;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public void setArtifactId(String artifactId) {
+        this.artifactId = artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    @Override
+    public int compareTo(CatalogEntry that) {
+        int answer = compare(artifactId, that.artifactId);
+        if (answer == 0) {
+            answer = compare(groupId, that.groupId);
+        }
+        if (answer == 0) {
+            answer = compareVersions(version, that.version);
+        }
+        if (answer == 0) {
+            answer = compare(description, that.description);
+        }
+        return answer;
+    }
+
+    private static int compare(String a, String b) {
+        if (a == null) {
+            return b == null ? 0 : -1;
+        }
+        return b == null ? 1 : a.compareTo(b);
+    }
+
+    /**
+     * Compares versions as maven does, falling back to the text for versions maven considers equal such as
+     * <code>1.0</code> and <code>1.0.0</code>
+     */
+    public static int compareVersions(String a, String b) {
+        if (a == null || b == null) {
+            return compare(a, b);
+        }
+        int answer = new ComparableVersion(a).compareTo(new ComparableVersion(b));
+        return answer != 0 ? answer : a.compareTo(b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CatalogEntry)) {
+            return false;
+        }
+        return compareTo((CatalogEntry) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int answer = artifactId != null ? artifactId.hashCode() : 0;
+        answer = 31 * answer + (groupId != null ? groupId.hashCode() : 0);
+        answer = 31 * answer + (version != null ? version.hashCode() : 0);
+        answer = 31 * answer + (description != null ? description.hashCode() : 0);
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        return groupId + ":" + artifactId + ":" + version;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A compact JSON index of the archetype catalog which can be loaded without parsing the XML catalog.
+ * <p/>
+ * Archetypes can be looked up by artifactId, found by a prefix of their artifactId or searched for by the words
+ * of their artifactId and description. The lookup tables are built when the index is loaded; the file itself only
+ * holds the archetypes, sorted by artifactId.
+ */
+public class CatalogIndex {
+
+    public static final String INDEX_FILE_NAME = "archetype-catalog-index.json";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final List<CatalogEntry> archetypes;
+    private final String[] sortedArtifactIds;
+    private final CatalogEntry[] sortedArchetypes;
+    private final Map<String, CatalogEntry> byArtifactId = new HashMap<>();
+    private final Map<String, List<CatalogEntry>> byKeyword = new HashMap<>();
+
+    public CatalogIndex(List<CatalogEntry> archetypes) {
+        List<CatalogEntry> sorted = new ArrayList<>(archetypes);
+        Collections.sort(sorted);
+        this.archetypes = Collections.unmodifiableList(sorted);
+        this.sortedArchetypes = sorted.toArray(new CatalogEntry[sorted.size()]);
+        this.sortedArtifactIds = new String[sortedArchetypes.length];
+        for (int i = 0; i < sortedArchetypes.length; i++) {
+            CatalogEntry entry = sortedArchetypes[i];
+            String artifactId = entry.getArtifactId() != null ? entry.getArtifactId() : "";
+            sortedArtifactIds[i] = artifactId;
+            CatalogEntry latest = byArtifactId.get(artifactId);
+            if (latest == null || CatalogEntry.compareVersions(entry.getVersion(), latest.getVersion()) > 0) {
+                byArtifactId.put(artifactId, entry);
+            }
+            Set<String> keywords = new LinkedHashSet<>();
+            keywords.addAll(keywords(artifactId));
+            keywords.addAll(keywords(entry.getDescription()));
+            for (String keyword : keywords) {
+                List<CatalogEntry> list = byKeyword.get(keyword);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    byKeyword.put(keyword, list);
+                }
+                list.add(entry);
+            }
+        }
+    }
+
+    public static CatalogIndex load(InputStream in) throws IOException {
+        IndexData data = MAPPER.readValue(in, IndexData.class);
+        if (data.getFormatVersion() != FORMAT_VERSION) {
+            throw new IOException("Unsupported archetype catalog index format " + data.getFormatVersion());
+        }
+        return new CatalogIndex(data.getArchetypes() != null ? data.getArchetypes() : Collections.<CatalogEntry>emptyList());
+    }
+
+    public static CatalogIndex load(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return load(in);
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        IndexData data = new IndexData();
+        data.setFormatVersion(FORMAT_VERSION);
+        data.setArchetypes(archetypes);
+        MAPPER.writeValue(out, data);
+    }
+
+    public void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Returns the archetypes sorted by artifactId, groupId and version
+     */
+    public List<CatalogEntry> getArchetypes() {
+        return archetypes;
+    }
+
+    /**
+     * Returns the latest version of the archetype with the given artifactId or null if there is no such archetype
+     */
+    public CatalogEntry get(String artifactId) {
+        return byArtifactId.get(artifactId);
+    }
+
+    /**
+     * Returns the archetypes whose artifactId starts with the given prefix, sorted by artifactId
+     */
+    public List<CatalogEntry> findByPrefix(String prefix) {
+        int idx = Arrays.binarySearch(sortedArtifactIds, prefix);
+        if (idx < 0) {
+            idx = -idx - 1;
+        } else {
+            // there may be several versions of the same artifactId
+            while (idx > 0 && sortedArtifactIds[idx - 1].equals(prefix)) {
+                idx--;
+            }
+        }
+        List<CatalogEntry> answer = new ArrayList<>();
+        while (idx < sortedArtifactIds.length && sortedArtifactIds[idx].startsWith(prefix)) {
+            answer.add(sortedArchetypes[idx++]);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the archetypes whose artifactId or description contain all the words of the given text,
+     * ignoring case and sorted by artifactId
+     */
+    public List<CatalogEntry> search(String text) {
+        List<CatalogEntry> answer = null;
+        for (String keyword : keywords(text)) {
+            List<CatalogEntry> matches = byKeyword.get(keyword);
+            if (matches == null) {
+                return Collections.emptyList();
+            }
+            if (answer == null) {
+                answer = new ArrayList<>(matches);
+            } else {
+                answer.retainAll(new LinkedHashSet<>(matches));
+            }
+        }
+        return answer != null ? answer : new ArrayList<>(archetypes);
+    }
+
+    /**
+     * Splits the text into lower case words of letters and digits
+     */
+    protected static List<String> keywords(String text) {
+        List<String> answer = new ArrayList<>();
+        if (text == null) {
+            return answer;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                answer.add(word.toString().toLowerCase(Locale.ENGLISH));
+                word.setLength(0);
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogIndex(" + archetypes.size() + " archetypes)";
+    }
+
+    /**
+     * The contents of the index file
+     */
+    public static class IndexData {
+        private int formatVersion;
+        private List<CatalogEntry> archetypes;
+
+        public int getFormatVersion() {
+            return formatVersion;
+        }
+
+        public void setFormatVersion(int formatVersion) {
+            this.formatVersion = formatVersion;
+        }
+
+        public List<CatalogEntry> getArchetypes() {
+            return archetypes;
+        }
+
+        public void setArchetypes(List<CatalogEntry> archetypes) {
+            this.archetypes = archetypes;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.utils.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small HTTP server which serves the archetype catalog and its JSON index, so that clients which poll the
+ * catalog can do so cheaply.
+ * <p/>
+ * The catalog is kept in memory along with a gzip compressed copy and is only generated again when the
+ * archetype poms change; which is checked at most once per {@link #setCheckIntervalMillis(long) check interval}
+ * by looking at the sizes and last modified times of the poms. Responses carry an <code>ETag</code> and
+ * <code>Last-Modified</code> header so clients can make conditional requests, which get a
+ * <code>304 Not Modified</code> response while the catalog is unchanged.
+ */
+public class CatalogServer {
+
+    public static Logger LOG = LoggerFactory.getLogger(CatalogServer.class);
+
+    public static final String PORT_PROPERTY = "catalog.port";
+    public static final String CATALOG_PATH = "/archetype-catalog.xml";
+    public static final String INDEX_PATH = "/" + CatalogIndex.INDEX_FILE_NAME;
+
+    private final File archetypesDir;
+    private final File workDir;
+    private File bomFile;
+    private File archetypesPomFile;
+    private long checkIntervalMillis = 1000;
+    private int threads = 4;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private CatalogCache catalogCache;
+    private String fingerprint;
+    private long lastChecked;
+    private Resource catalog;
+    private Resource index;
+
+    /**
+     * @param archetypesDir the directory containing a directory with a <code>pom.xml</code> for each archetype
+     * @param workDir       the directory the catalog is generated in
+     */
+    public CatalogServer(File archetypesDir, File workDir) {
+        this.archetypesDir = archetypesDir;
+        this.workDir = workDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String basedir = System.getProperty("basedir");
+        if (Strings.isNullOrBlank(basedir)) {
+            basedir = ".";
+        }
+        String outputPath = System.getProperty("outputdir");
+        File archetypesDir = Strings.isNotBlank(outputPath) ? new File(outputPath) : new File(basedir, "../archetypes");
+        int port = Integer.parseInt(System.getProperty(PORT_PROPERTY, "8080"));
+
+        CatalogServer server = new CatalogServer(archetypesDir.getCanonicalFile(), new File(basedir, "target/catalog-server"));
+        server.setBomFile(new File(basedir, System.getProperty("rootPomFile", "../pom.xml")));
+        server.setArchetypesPomFile(new File(archetypesDir, "pom.xml"));
+        server.start(port);
+        System.out.println("Serving the archetype catalog at http://localhost:" + server.getPort() + CATALOG_PATH);
+    }
+
+    public void setBomFile(File bomFile) {
+        this.bomFile = bomFile;
+    }
+
+    public void setArchetypesPomFile(File archetypesPomFile) {
+        this.archetypesPomFile = archetypesPomFile;
+    }
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    /**
+     * Sets how often the archetype poms are checked for changes; or 0 to check on every request
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Sets the number of requests which are handled at the same time
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Starts serving the catalog on the given port of all interfaces; or any free port if the port is 0
+     */
+    public void start(int port) throws IOException {
+        start(new InetSocketAddress(port));
+    }
+
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Catalog server is already started on port " + getPort());
+        }
+        workDir.mkdirs();
+        catalogCache = CatalogCache.load(new File(workDir, "archetype-catalog-cache.json"));
+        // generate the catalog up front so the first request does not have to wait
+        refresh();
+
+        server = HttpServer.create(address, 0);
+        server.createContext(CATALOG_PATH, new ResourceHandler(false));
+        server.createContext(INDEX_PATH, new ResourceHandler(true));
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Serving the archetype catalog of " + archetypesDir + " on port " + getPort());
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the port the server is listening on
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    /**
+     * Generates the catalog again if the archetype poms have changed since it was last generated and the check
+     * interval has passed
+     */
+    protected synchronized void refresh() throws IOException {
+        long now = System.currentTimeMillis();
+        if (catalog != null && now - lastChecked < checkIntervalMillis) {
+            return;
+        }
+        lastChecked = now;
+        List<File> archetypeDirs = findArchetypeDirs();
+        String newFingerprint = fingerprint(archetypeDirs);
+        if (catalog != null && newFingerprint.equals(fingerprint)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        File catalogFile = new File(workDir, "archetype-catalog.xml");
+        CatalogBuilder builder = new CatalogBuilder(catalogFile);
+        builder.setBomFile(bomFile);
+        builder.setArchetypesPomFile(archetypesPomFile);
+        builder.setCatalogCache(catalogCache);
+        builder.configure();
+        try {
+            builder.addArchetypeMetaData(archetypeDirs);
+        } finally {
+            builder.close();
+        }
+        catalog = Resource.load(CatalogArtifacts.write(catalogFile), "application/xml", catalog);
+        index = Resource.load(CatalogArtifacts.write(builder.getIndexFile()), "application/json", index);
+        fingerprint = newFingerprint;
+        LOG.info("Generated the archetype catalog of " + archetypeDirs.size() + " archetypes in "
+                + (System.currentTimeMillis() - start) + " ms with ETag " + catalog.etag);
+    }
+
+    protected List<File> findArchetypeDirs() {
+        List<File> answer = new ArrayList<>();
+        File[] files = archetypesDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (new File(file, "pom.xml").isFile()) {
+                    answer.add(file);
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns a fingerprint of the sizes and last modified times of the poms which the catalog is generated from
+     */
+    protected String fingerprint(List<File> archetypeDirs) {
+        List<File> poms = new ArrayList<>();
+        for (File dir : archetypeDirs) {
+            poms.add(new File(dir, "pom.xml"));
+        }
+        if (bomFile != null) {
+            poms.add(bomFile);
+        }
+        if (archetypesPomFile != null) {
+            poms.add(archetypesPomFile);
+        }
+        Collections.sort(poms);
+        StringBuilder builder = new StringBuilder();
+        for (File pom : poms) {
+            builder.append(pom.getPath()).append(':').append(pom.length()).append(':').append(pom.lastModified()).append('\n');
+        }
+        return CatalogCache.hash(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the catalog or its index, generating them again first if the archetype poms have changed. If they
+     * cannot be generated the previous version is returned, so a broken pom does not take the catalog offline.
+     */
+    protected synchronized Resource getResource(boolean isIndex) throws IOException {
+        try {
+            refresh();
+        } catch (IOException e) {
+            if (catalog == null) {
+                throw e;
+            }
+            LOG.warn("Serving the previous archetype catalog as it could not be generated due: " + e.getMessage(), e);
+        }
+        return isIndex ? index : catalog;
+    }
+
+    /**
+     * Serves the catalog or its index, compressed if the client accepts gzip, and handles conditional requests
+     */
+    protected class ResourceHandler implements HttpHandler {
+        private final boolean isIndex;
+
+        public ResourceHandler(boolean isIndex) {
+            this.isIndex = isIndex;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                Headers responseHeaders = exchange.getResponseHeaders();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    responseHeaders.set("Allow", "GET, HEAD");
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                Resource resource;
+                try {
+                    resource = getResource(isIndex);
+                } catch (IOException e) {
+                    LOG.error("Failed to generate the archetype catalog due: " + e.getMessage(), e);
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+
+                Headers requestHeaders = exchange.getRequestHeaders();
+                boolean gzip = acceptsGzip(requestHeaders.getFirst("Accept-Encoding"));
+                String etag = gzip ? resource.gzipEtag : resource.etag;
+                responseHeaders.set("ETag", etag);
+                responseHeaders.set("Last-Modified", formatDate(resource.lastModified));
+                responseHeaders.set("Vary", "Accept-Encoding");
+                responseHeaders.set("Cache-Control", "no-cache");
+
+                if (isNotModified(requestHeaders, resource)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                byte[] body = gzip ? resource.gzip : resource.data;
+                responseHeaders.set("Content-Type", resource.contentType);
+                if (gzip) {
+                    responseHeaders.set("Content-Encoding", "gzip");
+                }
+                if ("HEAD".equals(method)) {
+                    responseHeaders.set("Content-Length", Integer.toString(body.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the conditional request headers match the current version of the resource; an
+     * <code>If-None-Match</code> header takes precedence over an <code>If-Modified-Since</code> header
+     */
+    protected static boolean isNotModified(Headers requestHeaders, Resource resource) {
+        String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(resource.etag) || tag.equals(resource.gzipEtag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                // HTTP dates only have a resolution of seconds
+                return resource.lastModified / 1000 <= newDateFormat().parse(ifModifiedSince).getTime() / 1000;
+            } catch (ParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] parts = encoding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(parameter.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static String formatDate(long time) {
+        return newDateFormat().format(new Date(time));
+    }
+
+    private static SimpleDateFormat newDateFormat() {
+        SimpleDateFormat answer = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        answer.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return answer;
+    }
+
+    /**
+     * A file served from memory with its gzip compressed copy
+     */
+    protected static class Resource {
+        private final byte[] data;
+        private final byte[] gzip;
+        private final String etag;
+        private final String gzipEtag;
+        private final long lastModified;
+        private final String contentType;
+
+        public Resource(byte[] data, byte[] gzip, String etag, long lastModified, String contentType) {
+            this.data = data;
+            this.gzip = gzip;
+            this.etag = etag;
+            // the compressed copy is a different representation so it needs its own strong ETag
+            this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Loads the file and its compressed copy, keeping the last modified time of the previous version if
+         * the contents have not changed
+         */
+        public static Resource load(CatalogArtifacts artifacts, String contentType, Resource previous) throws IOException {
+            String etag = artifacts.getETag();
+            if (previous != null && previous.etag.equals(etag)) {
+                return previous;
+            }
+            byte[] data = java.nio.file.Files.readAllBytes(artifacts.getFile().toPath());
+            byte[] gzip = java.nio.file.Files.readAllBytes(artifacts.getGzipFile().toPath());
+            return new Resource(data, gzip, etag, System.currentTimeMillis(), contentType);
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
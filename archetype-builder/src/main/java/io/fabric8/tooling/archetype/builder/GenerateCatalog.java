@@ -44,21 +44,32 @@ public class GenerateCatalog {
 
         File archetypesPomFile = new File(basedir, "../archetypes/pom.xml").getCanonicalFile();
 
+        // build the catalog from the archetype jars in a local maven repository rather than the archetype sources
+        String repositoryPath = System.getProperty("repository", "").trim();
+        File repositoryDir = Strings.isNotBlank(repositoryPath) ? new File(repositoryPath) : null;
+
         CatalogBuilder builder = new CatalogBuilder(catalogFile);
         builder.setBomFile(bomFile);
-        builder.setArchetypesPomFile(archetypesPomFile);
+        if (repositoryDir == null) {
+            builder.setArchetypesPomFile(archetypesPomFile);
+        }
         builder.configure();
 
         List<String> dirs = new ArrayList<>();
         try {
-
-            for (File file : outputDir.listFiles()) {
-                // if the archetype was built...
-                File pom = new File(file, "pom.xml");
-                File target = new File(file, "target");
-                if( pom.exists() && target.exists() ) {
-                    builder.addArchetypeMetaData(pom, file.getName());
+            if (repositoryDir != null) {
+                builder.addArchetypesFromRepository(repositoryDir);
+            } else {
+                List<File> archetypeDirs = new ArrayList<>();
+                for (File file : outputDir.listFiles()) {
+                    // if the archetype was built...
+                    File pom = new File(file, "pom.xml");
+                    File target = new File(file, "target");
+                    if( pom.exists() && target.exists() ) {
+                        archetypeDirs.add(file);
+                    }
                 }
+                builder.addArchetypeMetaData(archetypeDirs);
             }
 
         } finally {
@@ -66,6 +77,12 @@ public class GenerateCatalog {
             builder.close();
         }
 
+        // let clients and mirrors fetch the catalog conditionally and compressed
+        CatalogArtifacts.write(catalogFile);
+        if (builder.getIndexFile() != null) {
+            CatalogArtifacts.write(builder.getIndexFile());
+        }
+
         StringBuffer sb = new StringBuffer();
         for (String dir : dirs) {
             sb.append("\n\t<module>" + dir + "</module>");
@@ -0,0 +1,146 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import io.fabric8.utils.Strings;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Helper methods for fetching just a single tag or branch of a git repository rather
+ * than cloning all of its branches and tags.
+ */
+public class GitHelpers {
+
+    public static final String REMOTE = Constants.DEFAULT_REMOTE_NAME;
+    public static final String SINGLE_REF_PROPERTY = "repo.singleRef";
+
+    /**
+     * Returns true unless single ref fetching has been disabled via the {@link #SINGLE_REF_PROPERTY} system property
+     */
+    public static boolean isSingleRefEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(SINGLE_REF_PROPERTY, "true").trim());
+    }
+
+    /**
+     * A remote ref and the ref spec used to fetch it into a local repository
+     */
+    public static class SingleRef {
+        private final RefSpec refSpec;
+        private final ObjectId objectId;
+
+        public SingleRef(RefSpec refSpec, ObjectId objectId) {
+            this.refSpec = refSpec;
+            this.objectId = objectId;
+        }
+
+        public RefSpec getRefSpec() {
+            return refSpec;
+        }
+
+        /**
+         * Returns the local ref name the remote ref is fetched into
+         */
+        public String getLocalRef() {
+            return refSpec.getDestination();
+        }
+
+        public ObjectId getObjectId() {
+            return objectId;
+        }
+
+        @Override
+        public String toString() {
+            return "SingleRef(" + refSpec + " " + objectId.name() + ")";
+        }
+    }
+
+    /**
+     * Finds the tag or branch with the given name in the remote repository, preferring tags over branches.
+     *
+     * @return the ref to fetch or null if the remote repository does not advertise a tag or branch with that name;
+     * for example if the name is a commit id
+     */
+    public static SingleRef findRemoteRef(String repoURL, String name) throws GitAPIException {
+        if (Strings.isNullOrBlank(name)) {
+            return null;
+        }
+        Map<String, Ref> refs = Git.lsRemoteRepository().setRemote(repoURL).setHeads(true).setTags(true).callAsMap();
+        Ref tag = refs.get(Constants.R_TAGS + name);
+        if (tag != null) {
+            String refName = Constants.R_TAGS + name;
+            return new SingleRef(new RefSpec("+" + refName + ":" + refName), tag.getObjectId());
+        }
+        Ref branch = refs.get(Constants.R_HEADS + name);
+        if (branch != null) {
+            String refName = Constants.R_HEADS + name;
+            return new SingleRef(new RefSpec("+" + refName + ":" + Constants.R_REMOTES + REMOTE + "/" + name), branch.getObjectId());
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new repository in the given directory with the default <code>origin</code> remote configured,
+     * without fetching anything
+     */
+    public static Git initWithRemote(String repoURL, File dir) throws Exception {
+        dir.mkdirs();
+        Git git = Git.init().setDirectory(dir).call();
+        try {
+            StoredConfig config = git.getRepository().getConfig();
+            RemoteConfig remoteConfig = new RemoteConfig(config, REMOTE);
+            remoteConfig.addURI(new URIish(repoURL));
+            remoteConfig.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + REMOTE + "/*"));
+            remoteConfig.update(config);
+            config.save();
+            return git;
+        } catch (Exception e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches only the given ref from the remote, without any other tags
+     */
+    public static FetchResult fetchSingleRef(Git git, SingleRef ref) throws GitAPIException {
+        return git.fetch().setRemote(REMOTE).setRefSpecs(ref.getRefSpec()).setTagOpt(TagOpt.NO_TAGS).call();
+    }
+
+    /**
+     * Checks out the commit of the given local ref as a detached HEAD
+     */
+    public static void checkoutCommit(Git git, String localRef) throws IOException, GitAPIException {
+        ObjectId commit = git.getRepository().resolve(localRef + "^{commit}");
+        if (commit == null) {
+            throw new IOException("Could not find " + localRef + " in " + git.getRepository().getDirectory());
+        }
+        git.checkout().setName(commit.name()).setForce(true).call();
+    }
+}
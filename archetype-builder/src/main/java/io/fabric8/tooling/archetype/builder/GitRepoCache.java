@@ -0,0 +1,260 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.fabric8.tooling.archetype.ArchetypeUtils;
+import io.fabric8.tooling.archetype.builder.GitHelpers.SingleRef;
+import io.fabric8.utils.Files;
+import io.fabric8.utils.Strings;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent cache of git clones keyed by the repository URL.
+ * <p/>
+ * Rather than cloning every quickstart from scratch on each build, the clone (including its <code>.git</code>
+ * database) is kept in the cache directory. Subsequent builds just fetch any new commits and export the tree of
+ * the requested tag or branch; so an unchanged repository only costs a single ref advertisement.
+ * <p/>
+ * The cached clones have no working tree; files are written straight from the git object database to
+ * the export directory so that each file is only written once.
+ */
+public class GitRepoCache {
+
+    public static Logger LOG = LoggerFactory.getLogger(GitRepoCache.class);
+
+    private static final String REMOTE = GitHelpers.REMOTE;
+
+    private final File cacheDir;
+    private boolean singleRef = GitHelpers.isSingleRefEnabled();
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    public GitRepoCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public boolean isSingleRef() {
+        return singleRef;
+    }
+
+    /**
+     * Sets whether only the requested tag or branch is fetched, rather than all branches and tags
+     */
+    public void setSingleRef(boolean singleRef) {
+        this.singleRef = singleRef;
+    }
+
+    /**
+     * Updates the cached clone of the given repository and writes the files of the given tag or branch (or the
+     * default branch of the remote repository if the tag is blank) into the given directory.
+     */
+    public void export(String repoURL, String tag, File destDir) throws IOException {
+        // the same repository may be used by more than one archetype, possibly on different threads
+        Object lock = locks.computeIfAbsent(repoURL, key -> new Object());
+        synchronized (lock) {
+            File repoDir = getRepoDir(repoURL);
+            if (destDir.exists()) {
+                Files.recursiveDelete(destDir);
+            }
+            try (Git git = openAndFetch(repoURL, repoDir, tag)) {
+                ObjectId commit = resolveCommit(git, tag);
+                LOG.info("Exporting " + commit.name() + " of cached clone " + repoDir + " to " + destDir);
+                exportTree(git.getRepository(), commit, destDir);
+            } catch (IOException e) {
+                throw e;
+            } catch (Throwable e) {
+                LOG.error("Failed to update cached clone of " + repoURL + " due: " + e.getMessage(), e);
+                throw new IOException("Failed to update cached clone of " + repoURL + " due: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Returns the directory of the cached clone for the given repository URL
+     */
+    public File getRepoDir(String repoURL) {
+        String name = Strings.stripSuffix(repoURL.replaceAll("/+$", ""), ".git");
+        int idx = Math.max(name.lastIndexOf('/'), name.lastIndexOf(':'));
+        if (idx >= 0) {
+            name = name.substring(idx + 1);
+        }
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        // the hash avoids clashes between repositories with the same name in different organisations
+        return new File(cacheDir, name + "-" + sha1(repoURL).substring(0, 12));
+    }
+
+    protected Git openAndFetch(String repoURL, File repoDir, String tag) throws Exception {
+        SingleRef ref = singleRef ? GitHelpers.findRemoteRef(repoURL, tag) : null;
+        if (ref != null) {
+            Git git = openOrInit(repoURL, repoDir);
+            try {
+                ObjectId localId = git.getRepository().resolve(ref.getLocalRef());
+                if (ref.getObjectId().equals(localId)) {
+                    LOG.info("Cached clone " + repoDir + " of " + repoURL + " is up to date with " + tag);
+                } else {
+                    LOG.info("Fetching " + tag + " of " + repoURL + " into cached clone " + repoDir);
+                    GitHelpers.fetchSingleRef(git, ref);
+                }
+                return git;
+            } catch (Exception e) {
+                LOG.warn("Failed to fetch just " + tag + " of " + repoURL + " so fetching all branches instead: " + e.getMessage());
+                git.close();
+            }
+        }
+
+        // rather than cloning we fetch into a new repository so that nothing is checked out
+        Git git = openOrInit(repoURL, repoDir);
+        try {
+            LOG.info("Fetching " + repoURL + " into cached clone " + repoDir);
+            FetchResult result = git.fetch().setRemote(REMOTE).setTagOpt(TagOpt.FETCH_TAGS).setRemoveDeletedRefs(true).call();
+            rememberRemoteHead(git, result.getAdvertisedRef(Constants.HEAD));
+            return git;
+        } catch (Exception e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    protected Git openOrInit(String repoURL, File repoDir) throws Exception {
+        if (new File(repoDir, Constants.DOT_GIT).isDirectory()) {
+            return Git.open(repoDir);
+        }
+        if (repoDir.exists()) {
+            Files.recursiveDelete(repoDir);
+        }
+        return GitHelpers.initWithRemote(repoURL, repoDir);
+    }
+
+    /**
+     * Remembers the commit of the default branch of the remote repository so that we can check it
+     * out when no tag is specified, as the cached clones have no local branches
+     */
+    protected void rememberRemoteHead(Git git, Ref head) throws IOException {
+        if (head != null && head.getObjectId() != null) {
+            Repository repository = git.getRepository();
+            RefUpdate update = repository.updateRef(Constants.R_REMOTES + REMOTE + "/" + Constants.HEAD, true);
+            update.setNewObjectId(head.getObjectId());
+            update.setForceUpdate(true);
+            update.update();
+        }
+    }
+
+    protected ObjectId resolveCommit(Git git, String tag) throws IOException {
+        Repository repository = git.getRepository();
+        String[] candidates;
+        if (Strings.isNullOrBlank(tag)) {
+            candidates = new String[]{Constants.R_REMOTES + REMOTE + "/" + Constants.HEAD};
+        } else {
+            candidates = new String[]{Constants.R_TAGS + tag, Constants.R_REMOTES + REMOTE + "/" + tag, tag};
+        }
+        for (String candidate : candidates) {
+            ObjectId id = repository.resolve(candidate + "^{commit}");
+            if (id != null) {
+                return id;
+            }
+        }
+        throw new IOException("Could not find " + (Strings.isNullOrBlank(tag) ? "the default branch" : tag) + " in " + repository.getDirectory());
+    }
+
+    /**
+     * Writes all the files in the tree of the given commit into the given directory, reading them
+     * straight from the object database rather than checking them out
+     */
+    protected void exportTree(Repository repository, ObjectId commitId, File destDir) throws IOException {
+        destDir.mkdirs();
+        try (RevWalk revWalk = new RevWalk(repository); TreeWalk treeWalk = new TreeWalk(repository)) {
+            RevCommit commit = revWalk.parseCommit(commitId);
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            ObjectReader reader = treeWalk.getObjectReader();
+            while (treeWalk.next()) {
+                FileMode mode = treeWalk.getFileMode(0);
+                if (mode == FileMode.GITLINK) {
+                    LOG.debug("Ignoring submodule " + treeWalk.getPathString());
+                    continue;
+                }
+                File file = new File(destDir, treeWalk.getPathString());
+                file.getParentFile().mkdirs();
+                ObjectLoader loader = reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+                if (mode == FileMode.SYMLINK && createSymbolicLink(file, new String(loader.getBytes(), StandardCharsets.UTF_8))) {
+                    continue;
+                }
+                try (OutputStream out = new FileOutputStream(file)) {
+                    loader.copyTo(out);
+                }
+                if (mode == FileMode.EXECUTABLE_FILE) {
+                    file.setExecutable(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a symbolic link to the given target, returning false if the file system does not support them so
+     * that the link is written as a file containing its target, as git does
+     */
+    protected boolean createSymbolicLink(File file, String target) throws IOException {
+        Path link = file.toPath();
+        try {
+            java.nio.file.Files.deleteIfExists(link);
+            java.nio.file.Files.createSymbolicLink(link, Paths.get(target));
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            LOG.warn("Writing the symbolic link " + file + " to " + target + " as a file as symbolic links are not supported due: " + e.getMessage());
+            return false;
+        }
+    }
+
+    protected static String sha1(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return ArchetypeUtils.toHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
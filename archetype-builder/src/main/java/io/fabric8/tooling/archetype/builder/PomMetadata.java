@@ -0,0 +1,206 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The coordinates and description of a <code>pom.xml</code>, read with a streaming parser which stops as soon as
+ * they are all known rather than parsing the whole pom.
+ * <p/>
+ * As with {@link io.fabric8.tooling.archetype.ArchetypeUtils#firstElementText}, the direct children of
+ * <code>project</code> are preferred, falling back to the first element with the same name anywhere in the pom,
+ * such as the <code>groupId</code> of the parent.
+ */
+public class PomMetadata {
+
+    private static final String[] FIELDS = {"groupId", "artifactId", "version", "description"};
+    private static final int VERSION = 2;
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+    private final String parentVersion;
+    private final String description;
+
+    public PomMetadata(String groupId, String artifactId, String version, String parentVersion, String description) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.parentVersion = parentVersion;
+        this.description = description;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory answer = XMLInputFactory.newInstance();
+        answer.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        answer.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return answer;
+    }
+
+    /**
+     * Reads the metadata of a pom, stopping once the top level coordinates, description and parent version have been read
+     */
+    public static PomMetadata read(InputStream in) throws IOException {
+        String[] direct = new String[FIELDS.length];
+        String[] first = new String[FIELDS.length];
+        String parentVersion = null;
+        boolean parentRead = false;
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                boolean inParent = false;
+                // the text of the element being read, at most one element per field is read at a time
+                StringBuilder text = null;
+                int textDepth = -1;
+                int field = -1;
+                boolean isDirect = false;
+                boolean isParentVersion = false;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String name = reader.getLocalName();
+                        if (depth == 2 && "parent".equals(name) && !parentRead) {
+                            inParent = true;
+                        }
+                        if (text == null && depth > 1) {
+                            int idx = indexOf(name);
+                            if (idx >= 0 && ((depth == 2 && direct[idx] == null) || first[idx] == null
+                                    || (inParent && depth == 3 && idx == VERSION && parentVersion == null))) {
+                                field = idx;
+                                isDirect = depth == 2;
+                                isParentVersion = inParent && depth == 3 && idx == VERSION;
+                                text = new StringBuilder();
+                                textDepth = depth;
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == textDepth) {
+                            String value = text.toString();
+                            if (first[field] == null) {
+                                first[field] = value;
+                            }
+                            if (isDirect) {
+                                direct[field] = value;
+                            }
+                            if (isParentVersion) {
+                                parentVersion = value;
+                            }
+                            text = null;
+                            textDepth = -1;
+                        }
+                        if (depth == 2 && inParent) {
+                            inParent = false;
+                            parentRead = true;
+                        }
+                        depth--;
+                        if (isComplete(direct, parentVersion, parentRead)) {
+                            break;
+                        }
+                    } else if (text != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE)) {
+                        text.append(reader.getText());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse pom.xml due: " + e.getMessage(), e);
+        }
+
+        String[] values = new String[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            values[i] = direct[i] != null ? direct[i] : first[i];
+        }
+        return new PomMetadata(values[0], values[1], values[VERSION], parentVersion, values[3]);
+    }
+
+    private static int indexOf(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true once nothing later in the pom can change the metadata
+     */
+    private static boolean isComplete(String[] direct, String parentVersion, boolean parentRead) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            // the top level version is not needed if the parent has one
+            if (direct[i] == null && !(i == VERSION && parentVersion != null && parentVersion.length() > 0)) {
+                return false;
+            }
+        }
+        return parentRead || parentVersion != null;
+    }
+
+    /**
+     * Returns the groupId of the project or, if the project inherits it, of its parent; or null if there is none
+     */
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    /**
+     * Returns the version of the project or, if the project inherits it, of its parent; or null if there is none
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the version of the parent or null if there is no parent or it has no version
+     */
+    public String getParentVersion() {
+        return parentVersion;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the version an archetype is published with: the version of the parent if it has one, otherwise
+     * the version of the project
+     */
+    public String getArchetypeVersion() {
+        if (parentVersion != null && parentVersion.length() > 0) {
+            return parentVersion;
+        }
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "PomMetadata(" + groupId + ":" + artifactId + ":" + version + ")";
+    }
+}
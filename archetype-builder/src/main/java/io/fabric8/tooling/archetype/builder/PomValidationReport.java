@@ -0,0 +1,206 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * The findings of a {@link PomValidator} run, which can be written as JSON for tools to consume.
+ * <p/>
+ * The findings are ordered by the name of the quickstart and then by their position in its pom, so the report
+ * is the same however many threads validated the poms.
+ */
+public class PomValidationReport {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT);
+
+    private int poms;
+    private List<Finding> findings = new ArrayList<>();
+    private Map<String, String> missingProperties = new TreeMap<>();
+
+    /**
+     * Returns the number of poms which were validated
+     */
+    public int getPoms() {
+        return poms;
+    }
+
+    public void setPoms(int poms) {
+        this.poms = poms;
+    }
+
+    /**
+     * Returns the dependencies and plugins whose versions are not maven properties and the poms which could not
+     * be parsed
+     */
+    public List<Finding> getFindings() {
+        return findings;
+    }
+
+    public void setFindings(List<Finding> findings) {
+        this.findings = findings;
+    }
+
+    /**
+     * Returns the version properties used by the quickstarts which are missing from the fabric8-maven-dependencies
+     * pom, with their values in the quickstarts
+     */
+    public Map<String, String> getMissingProperties() {
+        return missingProperties;
+    }
+
+    public void setMissingProperties(Map<String, String> missingProperties) {
+        this.missingProperties = missingProperties;
+    }
+
+    public void write(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        MAPPER.writeValue(file, this);
+    }
+
+    @Override
+    public String toString() {
+        return "PomValidationReport(" + poms + " poms, " + findings.size() + " findings, "
+                + missingProperties.size() + " missing properties)";
+    }
+
+    /**
+     * Something found in the pom of a quickstart
+     */
+    public static class Finding {
+        public static final String UNVERSIONED = "unversioned";
+        public static final String MISSING_PROPERTY = "missing-property";
+        public static final String INVALID_POM = "invalid-pom";
+
+        private String type;
+        private String project;
+        private String kind;
+        private String coordinates;
+        private String version;
+        private String message;
+        private String propertyName;
+        private String propertyValue;
+
+        public Finding() {
+        }
+
+        public Finding(String type, String project, String kind, String coordinates, String version, String message) {
+            this.type = type;
+            this.project = project;
+            this.kind = kind;
+            this.coordinates = coordinates;
+            this.version = version;
+            this.message = message;
+        }
+
+        /**
+         * Returns the type of finding; one of {@link #UNVERSIONED}, {@link #MISSING_PROPERTY} or {@link #INVALID_POM}
+         */
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        /**
+         * Returns the name of the quickstart directory
+         */
+        public String getProject() {
+            return project;
+        }
+
+        public void setProject(String project) {
+            this.project = project;
+        }
+
+        /**
+         * Returns <code>dependency</code> or <code>plugin</code>
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        public void setKind(String kind) {
+            this.kind = kind;
+        }
+
+        public String getCoordinates() {
+            return coordinates;
+        }
+
+        public void setCoordinates(String coordinates) {
+            this.coordinates = coordinates;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public void setVersion(String version) {
+            this.version = version;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        public String getPropertyName() {
+            return propertyName;
+        }
+
+        public void setPropertyName(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        /**
+         * Returns the value of the version property in the quickstart; or null if the quickstart does not define it
+         */
+        public String getPropertyValue() {
+            return propertyValue;
+        }
+
+        public void setPropertyValue(String propertyValue) {
+            this.propertyValue = propertyValue;
+        }
+
+        @JsonIgnore
+        public boolean isWarning() {
+            return !MISSING_PROPERTY.equals(type);
+        }
+
+        @Override
+        public String toString() {
+            return "Finding(" + type + " " + project + " " + message + ")";
+        }
+    }
+}
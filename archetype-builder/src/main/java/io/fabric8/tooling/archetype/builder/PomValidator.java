@@ -17,7 +17,7 @@
 package io.fabric8.tooling.archetype.builder;
 
 import io.fabric8.tooling.archetype.ArchetypeUtils;
-import io.fabric8.utils.DomHelper;
+import io.fabric8.tooling.archetype.builder.PomValidationReport.Finding;
 import io.fabric8.utils.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,15 +28,26 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.Text;
 import org.xml.sax.InputSource;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Validates the pom.xml files from the quickstarts to check that
@@ -45,16 +56,94 @@ import java.util.TreeSet;
 public class PomValidator {
     private static final transient Logger LOG = LoggerFactory.getLogger(PomValidator.class);
 
+    public static final String MAVEN_DEPENDENCIES_URL = "https://raw.githubusercontent.com/fabric8io/fabric8-maven-dependencies/master/pom.xml";
+    public static final String OFFLINE_PROPERTY = "pomValidator.offline";
+    public static final String PINNED_POM_PROPERTY = "pomValidator.mavenDependenciesPom";
+    public static final String TIMEOUT_PROPERTY = "pomValidator.timeout";
+    public static final String CACHE_FILE_PROPERTY = "pomValidator.cacheFile";
+    public static final String PARALLELISM_PROPERTY = "pomValidator.parallelism";
+    public static final String REPORT_PROPERTY = "pomValidator.report";
+
     private final File gitCloneDir;
+    private RemoteFileCache mavenDependenciesPom;
     private final ArchetypeUtils archetypeUtils = new ArchetypeUtils();
     private final Map<String, String> mavenDependenciesProperties = new HashMap<>();
+    private volatile boolean mavenDependenciesLoaded;
     private final Map<String, String> addMavenDependency = new TreeMap<>();
+    private int parallelism = ArchetypeUtils.parallelismFromSystemProperty(PARALLELISM_PROPERTY, 1);
+    private File reportFile = reportFileFromSystemProperty();
 
 
     public PomValidator(File gitCloneDir) {
         this.gitCloneDir = gitCloneDir;
     }
 
+    public RemoteFileCache getMavenDependenciesPom() throws IOException {
+        if (mavenDependenciesPom == null) {
+            mavenDependenciesPom = mavenDependenciesPomFromSystemProperties();
+        }
+        return mavenDependenciesPom;
+    }
+
+    /**
+     * Sets where the fabric8-maven-dependencies pom is fetched from and cached
+     */
+    public void setMavenDependenciesPom(RemoteFileCache mavenDependenciesPom) {
+        this.mavenDependenciesPom = mavenDependenciesPom;
+    }
+
+    /**
+     * Returns the cached fabric8-maven-dependencies pom configured by the {@link #OFFLINE_PROPERTY},
+     * {@link #PINNED_POM_PROPERTY}, {@link #TIMEOUT_PROPERTY} and {@link #CACHE_FILE_PROPERTY} system properties
+     */
+    protected static RemoteFileCache mavenDependenciesPomFromSystemProperties() throws IOException {
+        String cachePath = System.getProperty(CACHE_FILE_PROPERTY, "").trim();
+        File cacheFile = Strings.isNotBlank(cachePath) ? new File(cachePath)
+                : new File(System.getProperty("user.home"), ".fabric8/cache/fabric8-maven-dependencies-pom.xml");
+        RemoteFileCache answer = new RemoteFileCache(new URL(MAVEN_DEPENDENCIES_URL), cacheFile);
+        answer.setOffline(Boolean.getBoolean(OFFLINE_PROPERTY));
+        String pinnedPath = System.getProperty(PINNED_POM_PROPERTY, "").trim();
+        if (Strings.isNotBlank(pinnedPath)) {
+            answer.setPinnedFile(new File(pinnedPath));
+        }
+        String timeout = System.getProperty(TIMEOUT_PROPERTY, "").trim();
+        if (Strings.isNotBlank(timeout)) {
+            try {
+                answer.setTimeoutMillis(Integer.parseInt(timeout));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring invalid " + TIMEOUT_PROPERTY + " value: " + timeout);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the number of poms which are validated at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public File getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * Sets the file the findings are written to as JSON; or null to only print them
+     */
+    public void setReportFile(File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    protected static File reportFileFromSystemProperty() {
+        String value = System.getProperty(REPORT_PROPERTY, "").trim();
+        return value.isEmpty() ? null : new File(value);
+    }
+
     public static void main(String[] args) {
         String path = "../git-clones";
         if (args.length > 9) {
@@ -65,21 +154,34 @@ public class PomValidator {
         validator.validate();
     }
 
-    public void validate() {
+    /**
+     * Validates the poms of all the quickstarts, concurrently if the parallelism is greater than one, printing
+     * the findings in the order of the quickstart names and writing them to the report file if there is one
+     */
+    public PomValidationReport validate() {
+        PomValidationReport report = new PomValidationReport();
         File[] files = gitCloneDir.listFiles();
         if (files == null || files.length == 0) {
             warn("No folders found inside git clone dir: " + gitCloneDir);
         } else {
             loadMavenDependencyProperties();
 
+            Map<String, File> poms = new TreeMap<>();
             for (File file : files) {
                 if (file.isDirectory()) {
                     File pom = new File(file, "pom.xml");
                     if (pom.exists() && pom.isFile()) {
-                        validatePom(file.getName(), pom);
+                        poms.put(file.getName(), pom);
                     }
                 }
             }
+            for (List<Finding> findings : validatePoms(poms).values()) {
+                for (Finding finding : findings) {
+                    addFinding(report, finding);
+                }
+            }
+            report.setPoms(poms.size());
+            report.setMissingProperties(new TreeMap<>(addMavenDependency));
 
             if (!addMavenDependency.isEmpty()) {
                 System.out.println();
@@ -97,6 +199,75 @@ public class PomValidator {
                 System.out.println();
             }
         }
+        if (reportFile != null) {
+            try {
+                report.write(reportFile);
+                LOG.info("Wrote pom validation report " + reportFile + ": " + report);
+            } catch (IOException e) {
+                LOG.error("Failed to write " + reportFile + ". " + e, e);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Validates the given poms keyed by quickstart name, returning their findings in the same order
+     */
+    protected Map<String, List<Finding>> validatePoms(Map<String, File> poms) {
+        Map<String, List<Finding>> answer = new LinkedHashMap<>();
+        int threads = Math.min(parallelism, poms.size());
+        if (threads <= 1) {
+            for (Map.Entry<String, File> entry : poms.entrySet()) {
+                answer.put(entry.getKey(), validatePom(entry.getKey(), entry.getValue()));
+            }
+            return answer;
+        }
+
+        LOG.info("Validating " + poms.size() + " poms using " + threads + " threads");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<List<Finding>>> futures = new LinkedHashMap<>();
+            for (final Map.Entry<String, File> entry : poms.entrySet()) {
+                futures.put(entry.getKey(), executor.submit(new Callable<List<Finding>>() {
+                    @Override
+                    public List<Finding> call() throws Exception {
+                        return validatePom(entry.getKey(), entry.getValue());
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<List<Finding>>> future : futures.entrySet()) {
+                try {
+                    answer.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    LOG.error("Failed to validate " + poms.get(future.getKey()) + ". " + cause, cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.warn("Interrupted while validating " + poms.get(future.getKey()));
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return answer;
+    }
+
+    /**
+     * Adds a finding to the report, printing it if it is a warning, and keeps track of the missing properties
+     */
+    protected void addFinding(PomValidationReport report, Finding finding) {
+        report.getFindings().add(finding);
+        if (finding.isWarning()) {
+            warn(finding.getMessage());
+        } else {
+            String propertyName = finding.getPropertyName();
+            String propertyValue = finding.getPropertyValue();
+            boolean unknownValue = propertyValue == null;
+            if (!addMavenDependency.containsKey(propertyName) || !unknownValue) {
+                addMavenDependency.put(propertyName, unknownValue ? "????" : propertyValue);
+            }
+        }
     }
 
     protected void warn(String message) {
@@ -104,15 +275,20 @@ public class PomValidator {
     }
 
     protected void loadMavenDependencyProperties() {
-        String urlText = "https://raw.githubusercontent.com/fabric8io/fabric8-maven-dependencies/master/pom.xml";
+        File pom;
+        try {
+            pom = getMavenDependenciesPom().getFile();
+        } catch (IOException e) {
+            LOG.warn("Cannot check the properties of the fabric8-maven-dependencies pom due: " + e.getMessage());
+            return;
+        }
 
         Element root = null;
-        try {
-            URL url = new URL(urlText);
-            Document doc = archetypeUtils.parseXml(new InputSource(url.openStream()));
+        try (InputStream in = new FileInputStream(pom)) {
+            Document doc = archetypeUtils.parseXml(new InputSource(in));
             root = doc.getDocumentElement();
         } catch (Exception e) {
-            LOG.error("Failed to parse " + urlText + ". " + e, e);
+            LOG.error("Failed to parse " + pom + ". " + e, e);
             return;
         }
         if (root == null) {
@@ -130,6 +306,7 @@ public class PomValidator {
                 }
             }
         }
+        mavenDependenciesLoaded = true;
     }
 
     protected Element getPropertiesElement(Element root) {
@@ -141,37 +318,37 @@ public class PomValidator {
         return propertyElement;
     }
 
-    protected void validatePom(String projectName, File pom) {
+    /**
+     * Returns the findings of the pom of a quickstart, for its dependencies and then its plugins in the order they
+     * appear in the pom. The pom is read in a single pass with {@link PomVersionScanner} rather than into a DOM.
+     * This is safe to call from many threads at once.
+     */
+    protected List<Finding> validatePom(String projectName, File pom) {
         LOG.debug("Validating " + pom);
 
+        List<Finding> findings = new ArrayList<>();
         String prefix = "quickstart " + Strings.stripSuffix(projectName, "-archetype") + " pom.xml";
 
-        Element root = null;
-        try {
-            Document doc = archetypeUtils.parseXml(new InputSource(new FileReader(pom)));
-            root = doc.getDocumentElement();
+        PomVersionScanner scanner;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(pom))) {
+            scanner = PomVersionScanner.scan(in);
         } catch (Exception e) {
             LOG.error("Failed to parse " + pom + ". " + e, e);
-            return;
-        }
-        if (root == null) {
-            return;
+            findings.add(new Finding(Finding.INVALID_POM, projectName, null, null, null, "Failed to parse " + pom + ". " + e));
+            return findings;
         }
 
-        Element propertyElement = getPropertiesElement(root);
-
-        // lets load all the properties defined in the <properties> element in the bom pom.
-        NodeList dependencyElements = root.getElementsByTagName("dependency");
-        for (int i = 0, size = dependencyElements.getLength(); i < size; i++) {
-            Element dependency = (Element) dependencyElements.item(i);
-            validateVersion(prefix + " dependency", dependency, propertyElement);
-        }
-
-        NodeList pluginElements = root.getElementsByTagName("plugin");
-        for (int i = 0, size = pluginElements.getLength(); i < size; i++) {
-            Element plugin = (Element) pluginElements.item(i);
-            validateVersion(prefix + " plugin", plugin, propertyElement);
+        for (PomVersionScanner.Artifact artifact : scanner.getArtifacts()) {
+            String version = artifact.getVersion();
+            if (version != null) {
+                version = version.trim();
+                if (Strings.isNotBlank(version)) {
+                    checkVersion(projectName, prefix, artifact.getKind(), artifact.getGroupId(), artifact.getArtifactId(),
+                            version, scanner, findings);
+                }
+            }
         }
+        return findings;
     }
 
     private boolean addPropertiesToMavenDependenciesPom() {
@@ -244,52 +421,36 @@ public class PomValidator {
         return true;
     }
 
-    private void validateVersion(String kind, Element element, Element propertyElement) {
-        Element version = DomHelper.firstChild(element, "version");
-        if (version != null) {
-            String textContent = version.getTextContent();
-            if (textContent != null) {
-                textContent = textContent.trim();
-                if (Strings.isNotBlank(textContent)) {
-                    String groupId = textContent(DomHelper.firstChild(element, "groupId"));
-                    String artifactId = textContent(DomHelper.firstChild(element, "artifactId"));
-
-                    String coords = groupId + ":" + artifactId;
-                    if (Strings.isNullOrBlank(groupId)) {
-                        coords = artifactId;
-                    }
+    /**
+     * Checks that the version of a dependency or plugin is a maven property which is defined in the
+     * fabric8-maven-dependencies pom
+     */
+    protected void checkVersion(String projectName, String prefix, String kind, String groupId, String artifactId,
+                                String version, PomVersionScanner scanner, List<Finding> findings) {
+        String coords = groupId + ":" + artifactId;
+        if (Strings.isNullOrBlank(groupId)) {
+            coords = artifactId;
+        }
 
-                    if (!textContent.startsWith("${") || !textContent.endsWith("}")) {
-                        warn("" + kind + " " + coords + " does not use a maven property for version; has value: " + textContent);
-                    } else {
-                        String propertyName = textContent.substring(2, textContent.length() - 1);
-                        String propertyValue = "????";
-                        boolean unknownValue = true;
-                        if (propertyElement != null) {
-                            Element property = DomHelper.firstChild(propertyElement, propertyName);
-                            if (property != null) {
-                                propertyValue = property.getTextContent();
-                                if (Strings.isNotBlank(propertyValue)) {
-                                    unknownValue = false;
-                                }
-                            }
-                        }
-                        if (!mavenDependenciesProperties.containsKey(propertyName)) {
-                            if (!addMavenDependency.containsKey(propertyName) || !unknownValue) {
-                                addMavenDependency.put(propertyName, propertyValue);
-                            }
-                        }
-                    }
+        if (!version.startsWith("${") || !version.endsWith("}")) {
+            findings.add(new Finding(Finding.UNVERSIONED, projectName, kind, coords, version,
+                    prefix + " " + kind + " " + coords + " does not use a maven property for version; has value: " + version));
+        } else {
+            String propertyName = version.substring(2, version.length() - 1);
+            // without the fabric8-maven-dependencies pom every property would look missing
+            if (mavenDependenciesLoaded && !mavenDependenciesProperties.containsKey(propertyName)) {
+                String propertyValue = scanner.getProperties().get(propertyName);
+                if (propertyValue != null) {
+                    // a property defined in terms of other properties is reported with its resolved value
+                    propertyValue = scanner.resolve(propertyValue);
                 }
+                Finding finding = new Finding(Finding.MISSING_PROPERTY, projectName, kind, coords, version,
+                        prefix + " " + kind + " " + coords + " uses property " + propertyName
+                                + " which is not defined in fabric8-maven-dependencies");
+                finding.setPropertyName(propertyName);
+                finding.setPropertyValue(Strings.isNotBlank(propertyValue) ? propertyValue : null);
+                findings.add(finding);
             }
         }
-
-    }
-
-    private String textContent(Element element) {
-        if (element != null) {
-            return element.getTextContent();
-        }
-        return null;
     }
 }
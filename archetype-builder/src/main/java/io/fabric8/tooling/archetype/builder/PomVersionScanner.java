@@ -0,0 +1,279 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The properties, dependencies and plugins of a <code>pom.xml</code>, read in a single pass with a streaming
+ * parser so that the time and memory used grow linearly with the size of the pom.
+ * <p/>
+ * This finds the same elements as looking them up in a DOM: the properties are the direct children of the first
+ * <code>properties</code> element, and every <code>dependency</code> and <code>plugin</code> element is included
+ * wherever it is, with the text of its first direct <code>groupId</code>, <code>artifactId</code> and
+ * <code>version</code> children.
+ */
+public class PomVersionScanner {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final Pattern PROPERTY_PATTERN = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final int MAX_RESOLVE_DEPTH = 10;
+
+    private final Map<String, String> properties;
+    private final List<Artifact> dependencies;
+    private final List<Artifact> plugins;
+
+    public PomVersionScanner(Map<String, String> properties, List<Artifact> dependencies, List<Artifact> plugins) {
+        this.properties = properties;
+        this.dependencies = dependencies;
+        this.plugins = plugins;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory answer = XMLInputFactory.newInstance();
+        answer.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        answer.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return answer;
+    }
+
+    /**
+     * Reads the properties, dependencies and plugins of a pom
+     */
+    public static PomVersionScanner scan(InputStream in) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        List<Artifact> dependencies = new ArrayList<>();
+        List<Artifact> plugins = new ArrayList<>();
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                // the depth of the first properties element while it is being read
+                int propertiesDepth = -1;
+                boolean propertiesFound = false;
+                Deque<Artifact> open = new ArrayDeque<>();
+                // the text of the property or artifact field being read, including the text of any nested elements
+                StringBuilder text = null;
+                int textDepth = -1;
+                String textName = null;
+                Artifact textArtifact = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String name = reader.getLocalName();
+                        if (text == null) {
+                            Artifact parent = open.peek();
+                            if (propertiesDepth >= 0 && depth == propertiesDepth + 1) {
+                                text = new StringBuilder();
+                                textDepth = depth;
+                                textName = name;
+                                textArtifact = null;
+                            } else if (parent != null && parent.depth == depth - 1 && parent.isUnsetField(name)) {
+                                text = new StringBuilder();
+                                textDepth = depth;
+                                textName = name;
+                                textArtifact = parent;
+                            }
+                        }
+                        if ("properties".equals(name) && !propertiesFound) {
+                            propertiesFound = true;
+                            propertiesDepth = depth;
+                        } else if ("dependency".equals(name) || "plugin".equals(name)) {
+                            Artifact artifact = new Artifact(name, depth);
+                            open.push(artifact);
+                            if ("dependency".equals(name)) {
+                                dependencies.add(artifact);
+                            } else {
+                                plugins.add(artifact);
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (text != null && depth == textDepth) {
+                            if (textArtifact != null) {
+                                textArtifact.setField(textName, text.toString());
+                            } else if (!properties.containsKey(textName)) {
+                                properties.put(textName, text.toString());
+                            }
+                            text = null;
+                        }
+                        if (!open.isEmpty() && open.peek().depth == depth) {
+                            open.pop();
+                        }
+                        if (depth == propertiesDepth) {
+                            propertiesDepth = -1;
+                        }
+                        depth--;
+                    } else if (text != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                            || event == XMLStreamConstants.SPACE)) {
+                        text.append(reader.getText());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse pom due: " + e.getMessage(), e);
+        }
+        return new PomVersionScanner(properties, dependencies, plugins);
+    }
+
+    /**
+     * Returns the properties defined in the pom in the order they are defined
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    public List<Artifact> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    public List<Artifact> getPlugins() {
+        return Collections.unmodifiableList(plugins);
+    }
+
+    /**
+     * Returns the dependencies followed by the plugins, each in the order they appear in the pom
+     */
+    public List<Artifact> getArtifacts() {
+        List<Artifact> answer = new ArrayList<>(dependencies.size() + plugins.size());
+        answer.addAll(dependencies);
+        answer.addAll(plugins);
+        return answer;
+    }
+
+    /**
+     * Replaces the <code>${name}</code> expressions in the text with the properties of the pom, including any
+     * expressions in the values of those properties; expressions of unknown properties are left as they are
+     */
+    public String resolve(String text) {
+        if (text == null) {
+            return null;
+        }
+        String answer = text;
+        for (int i = 0; i < MAX_RESOLVE_DEPTH && answer.contains("${"); i++) {
+            Matcher matcher = PROPERTY_PATTERN.matcher(answer);
+            StringBuffer buffer = new StringBuffer();
+            boolean replaced = false;
+            while (matcher.find()) {
+                String value = properties.get(matcher.group(1));
+                if (value != null) {
+                    replaced = true;
+                    matcher.appendReplacement(buffer, Matcher.quoteReplacement(value.trim()));
+                } else {
+                    matcher.appendReplacement(buffer, Matcher.quoteReplacement(matcher.group()));
+                }
+            }
+            matcher.appendTail(buffer);
+            answer = buffer.toString();
+            if (!replaced) {
+                break;
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        return "PomVersionScanner(" + properties.size() + " properties, " + dependencies.size() + " dependencies, "
+                + plugins.size() + " plugins)";
+    }
+
+    /**
+     * A dependency or plugin of the pom
+     */
+    public static class Artifact {
+        private final String kind;
+        private final int depth;
+        private String groupId;
+        private String artifactId;
+        private String version;
+
+        protected Artifact(String kind, int depth) {
+            this.kind = kind;
+            this.depth = depth;
+        }
+
+        /**
+         * Returns <code>dependency</code> or <code>plugin</code>
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        /**
+         * Returns the version as written in the pom, or null if it has no version
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        protected boolean isUnsetField(String name) {
+            switch (name) {
+            case "groupId":
+                return groupId == null;
+            case "artifactId":
+                return artifactId == null;
+            case "version":
+                return version == null;
+            default:
+                return false;
+            }
+        }
+
+        protected void setField(String name, String value) {
+            switch (name) {
+            case "groupId":
+                groupId = value;
+                break;
+            case "artifactId":
+                artifactId = value;
+                break;
+            case "version":
+                version = value;
+                break;
+            default:
+            }
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + groupId + ":" + artifactId + ":" + version;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import io.fabric8.utils.IOHelpers;
+import io.fabric8.utils.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a local copy of a remote file, such as the <code>fabric8-maven-dependencies</code> pom, so that it is not
+ * downloaded again on every build.
+ * <p/>
+ * The copy is only refreshed once the {@link #setRefreshIntervalMillis(long) refresh interval} has passed, using
+ * a conditional request with the <code>ETag</code> and <code>Last-Modified</code> of the copy so an unchanged file
+ * is not downloaded again. If the file cannot be fetched within the {@link #setTimeoutMillis(int) timeout} the
+ * local copy is used instead. In {@link #setOffline(boolean) offline} mode the network is never used; the
+ * {@link #setPinnedFile(File) pinned file} is used if there is one, otherwise the local copy.
+ */
+public class RemoteFileCache {
+
+    public static Logger LOG = LoggerFactory.getLogger(RemoteFileCache.class);
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String CHECKED = "checked";
+
+    private final URL url;
+    private final File cacheFile;
+    private File pinnedFile;
+    private boolean offline;
+    private int timeoutMillis = 5000;
+    private long refreshIntervalMillis = 60 * 60 * 1000L;
+
+    public RemoteFileCache(URL url, File cacheFile) {
+        this.url = url;
+        this.cacheFile = cacheFile;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    public File getPinnedFile() {
+        return pinnedFile;
+    }
+
+    /**
+     * Sets a local copy of the file which is used rather than the remote file, such as a copy checked into
+     * source control for builds without network access
+     */
+    public void setPinnedFile(File pinnedFile) {
+        this.pinnedFile = pinnedFile;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Sets the connect and read timeouts of the request for the remote file
+     */
+    public void setTimeoutMillis(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    /**
+     * Sets how long the local copy is used before checking whether the remote file has changed; or 0 to check
+     * every time
+     */
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Returns a local file with the contents of the remote file, downloading it if the local copy is missing or
+     * out of date
+     *
+     * @throws IOException if the remote file cannot be fetched and there is no local copy
+     */
+    public File getFile() throws IOException {
+        if (offline) {
+            if (pinnedFile != null && pinnedFile.isFile()) {
+                return pinnedFile;
+            }
+            if (cacheFile.isFile()) {
+                LOG.debug("Using the cached copy " + cacheFile + " of " + url + " as we are offline");
+                return cacheFile;
+            }
+            throw new IOException("Cannot fetch " + url + " as we are offline and there is no local copy"
+                    + (pinnedFile != null ? " at " + pinnedFile : ""));
+        }
+        if (pinnedFile != null && pinnedFile.isFile()) {
+            return pinnedFile;
+        }
+
+        Properties metadata = loadMetadata();
+        boolean cached = cacheFile.isFile();
+        long checked = parseLong(metadata.getProperty(CHECKED));
+        if (cached && System.currentTimeMillis() - checked < refreshIntervalMillis) {
+            return cacheFile;
+        }
+        try {
+            refresh(cached ? metadata : new Properties());
+            return cacheFile;
+        } catch (IOException e) {
+            if (cached) {
+                LOG.warn("Using the cached copy " + cacheFile + " as " + url + " could not be fetched due: " + e.getMessage());
+                return cacheFile;
+            }
+            throw new IOException("Failed to fetch " + url + " due: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Fetches the remote file if it has changed since the local copy described by the metadata was fetched
+     */
+    protected void refresh(Properties metadata) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setUseCaches(false);
+        String etag = metadata.getProperty(ETAG);
+        String lastModified = metadata.getProperty(LAST_MODIFIED);
+        if (Strings.isNotBlank(etag)) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (Strings.isNotBlank(lastModified)) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        try {
+            if (connection instanceof HttpURLConnection) {
+                int status = ((HttpURLConnection) connection).getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    LOG.debug(url + " has not changed since it was fetched");
+                    saveMetadata(metadata);
+                    return;
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Unexpected response " + status + " " + ((HttpURLConnection) connection).getResponseMessage());
+                }
+            }
+
+            File dir = cacheFile.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            File tmp = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+            try {
+                try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(tmp)) {
+                    IOHelpers.copy(in, out);
+                }
+                java.nio.file.Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+            LOG.info("Fetched " + url + " to " + cacheFile);
+
+            Properties answer = new Properties();
+            if (connection.getHeaderField("ETag") != null) {
+                answer.setProperty(ETAG, connection.getHeaderField("ETag"));
+            }
+            if (connection.getHeaderField("Last-Modified") != null) {
+                answer.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+            }
+            saveMetadata(answer);
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    protected File getMetadataFile() {
+        return new File(cacheFile.getPath() + ".properties");
+    }
+
+    protected Properties loadMetadata() {
+        Properties answer = new Properties();
+        File file = getMetadataFile();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                answer.load(in);
+            } catch (IOException e) {
+                LOG.warn("Ignoring " + file + " as it could not be read due: " + e.getMessage());
+            }
+        }
+        return answer;
+    }
+
+    protected void saveMetadata(Properties metadata) throws IOException {
+        metadata.setProperty(CHECKED, Long.toString(System.currentTimeMillis()));
+        try (OutputStream out = new FileOutputStream(getMetadataFile())) {
+            metadata.store(out, "Fetched from " + url);
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteFileCache(" + url + " " + cacheFile + ")";
+    }
+}
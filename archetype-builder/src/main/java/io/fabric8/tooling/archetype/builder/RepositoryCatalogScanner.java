@@ -0,0 +1,224 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import io.fabric8.tooling.archetype.generator.ArchetypeDescriptor;
+import io.fabric8.tooling.archetype.generator.ZipCentralDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the archetypes in a local Maven repository so that a catalog can be built from the published archetype
+ * jars rather than from the archetype sources.
+ * <p/>
+ * Only the central directory of each jar is read, along with the <code>pom.properties</code> and the archetype
+ * descriptor entries, so the jars are never extracted or scanned from start to end. The description of an
+ * archetype comes from the <code>.pom</code> next to the jar in the repository, if there is one, otherwise from
+ * the name in its archetype descriptor.
+ */
+public class RepositoryCatalogScanner {
+
+    public static Logger LOG = LoggerFactory.getLogger(RepositoryCatalogScanner.class);
+
+    private static final String MAVEN_PREFIX = "META-INF/maven/";
+    private static final String POM_PROPERTIES = "pom.properties";
+    private static final String[] IGNORED_SUFFIXES = {"-sources.jar", "-javadoc.jar", "-tests.jar"};
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private final File repositoryDir;
+
+    public RepositoryCatalogScanner(File repositoryDir) {
+        this.repositoryDir = repositoryDir;
+    }
+
+    public File getRepositoryDir() {
+        return repositoryDir;
+    }
+
+    /**
+     * Returns the jars in the repository, ignoring source, javadoc and test jars, sorted by path
+     */
+    public List<File> findJars() throws IOException {
+        final List<File> answer = new ArrayList<>();
+        if (!repositoryDir.isDirectory()) {
+            LOG.warn("Maven repository does not exist!: " + repositoryDir);
+            return answer;
+        }
+        java.nio.file.Files.walkFileTree(repositoryDir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && name.endsWith(".jar") && !isIgnored(name)) {
+                    answer.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                LOG.warn("Ignoring " + file + " due: " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(answer);
+        return answer;
+    }
+
+    private static boolean isIgnored(String name) {
+        for (String suffix : IGNORED_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the catalog entry of an archetype jar, returning null if the jar is not an archetype
+     */
+    public static CatalogEntry readArchetypeJar(File jar) throws IOException {
+        byte[] pomProperties = null;
+        byte[] descriptor = null;
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.read(channel);
+            ZipCentralDirectory.Entry descriptorEntry = directory.getEntry(ArchetypeDescriptor.METADATA_ENTRY);
+            if (descriptorEntry == null) {
+                return null;
+            }
+            for (ZipCentralDirectory.Entry entry : directory.getEntries()) {
+                if (isPomProperties(entry.getName())) {
+                    pomProperties = ZipCentralDirectory.readEntry(channel, entry);
+                    break;
+                }
+            }
+            descriptor = ZipCentralDirectory.readEntry(channel, descriptorEntry);
+        } catch (ZipException e) {
+            // such as a zip64 jar, which is read the slower way
+            LOG.debug("Reading " + jar + " with ZipFile as its central directory could not be read due: " + e.getMessage());
+            try (ZipFile zip = new ZipFile(jar)) {
+                ZipEntry descriptorEntry = zip.getEntry(ArchetypeDescriptor.METADATA_ENTRY);
+                if (descriptorEntry == null) {
+                    return null;
+                }
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (isPomProperties(entry.getName())) {
+                        pomProperties = readBytes(zip, entry);
+                        break;
+                    }
+                }
+                descriptor = readBytes(zip, descriptorEntry);
+            }
+        }
+        if (pomProperties == null) {
+            LOG.warn("Ignoring archetype " + jar + " as it has no " + POM_PROPERTIES);
+            return null;
+        }
+
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(pomProperties));
+        String groupId = properties.getProperty("groupId");
+        String artifactId = properties.getProperty("artifactId");
+        String version = properties.getProperty("version");
+
+        String description = null;
+        File pom = new File(jar.getParentFile(), jar.getName().substring(0, jar.getName().length() - 4) + ".pom");
+        if (pom.isFile()) {
+            try (InputStream in = java.nio.file.Files.newInputStream(pom.toPath())) {
+                description = PomMetadata.read(in).getDescription();
+            } catch (IOException e) {
+                LOG.warn("Ignoring the description in " + pom + " due: " + e.getMessage());
+            }
+        }
+        if (description == null) {
+            description = readDescriptorName(descriptor, jar);
+        }
+        return new CatalogEntry(groupId, artifactId, version, description != null ? description : "");
+    }
+
+    /**
+     * Returns true if the entry is the <code>META-INF/maven/groupId/artifactId/pom.properties</code> of the jar
+     */
+    protected static boolean isPomProperties(String name) {
+        if (!name.startsWith(MAVEN_PREFIX) || !name.endsWith("/" + POM_PROPERTIES)) {
+            return false;
+        }
+        // groupId/artifactId/pom.properties
+        String path = name.substring(MAVEN_PREFIX.length());
+        int first = path.indexOf('/');
+        return first > 0 && path.indexOf('/', first + 1) == path.length() - POM_PROPERTIES.length() - 1;
+    }
+
+    private static byte[] readBytes(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Returns the name attribute of the archetype descriptor, or null if it has none
+     */
+    protected static String readDescriptorName(byte[] descriptor, File jar) {
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(descriptor));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        return reader.getAttributeValue(null, "name");
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            LOG.warn("Ignoring the archetype descriptor of " + jar + " due: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "RepositoryCatalogScanner(" + repositoryDir + ")";
+    }
+}
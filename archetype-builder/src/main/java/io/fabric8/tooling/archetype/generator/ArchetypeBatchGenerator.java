@@ -0,0 +1,273 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import io.fabric8.utils.IOHelpers;
+
+/**
+ * Generates many projects from the same archetype jar in a single pass over the jar.
+ * <p/>
+ * Each project is described by an {@link ArchetypeHelper} with its own output directory, coordinates, package and
+ * properties. Every entry of the jar is read and its Velocity macros processed once, then the entry is written to
+ * each of the projects with their own variables.
+ */
+public class ArchetypeBatchGenerator {
+
+    private final File archetypeFile;
+
+    public ArchetypeBatchGenerator(File archetypeFile) {
+        this.archetypeFile = archetypeFile;
+    }
+
+    public File getArchetypeFile() {
+        return archetypeFile;
+    }
+
+    /**
+     * Generates all the given projects, returning how long each project took to generate
+     */
+    public BatchReport generate(List<ArchetypeHelper> projects) throws IOException {
+        String path = archetypeFile.getCanonicalPath();
+        for (ArchetypeHelper project : projects) {
+            if (!path.equals(project.getArchetypeFile().getCanonicalPath())) {
+                throw new IllegalArgumentException("Project " + project.getOutputDir() + " uses archetype " + project.getArchetypeFile()
+                        + " rather than " + archetypeFile);
+            }
+        }
+        long start = System.nanoTime();
+        List<ProjectReport> reports = new ArrayList<>();
+        for (ArchetypeHelper project : projects) {
+            reports.add(new ProjectReport(project));
+        }
+        if (projects.isEmpty()) {
+            return new BatchReport(reports, 0, 0);
+        }
+
+        long sharedNanos = 0;
+        try (ZipFile zip = new ZipFile(archetypeFile);
+             FileChannel channel = FileChannel.open(archetypeFile.toPath(), StandardOpenOption.READ)) {
+            long time = System.nanoTime();
+            ArchetypeDescriptor descriptor = ArchetypeDescriptor.load(archetypeFile, zip);
+            ZipCentralDirectory directory = null;
+            try {
+                directory = ZipCentralDirectory.read(channel);
+            } catch (ZipException e) {
+                // compressed and stored binary files are then both read through the heap
+            }
+            sharedNanos += System.nanoTime() - time;
+
+            for (ProjectReport report : reports) {
+                time = System.nanoTime();
+                report.project.prepare(descriptor);
+                report.nanos += System.nanoTime() - time;
+            }
+
+            // all the projects share the same binary suffixes and Velocity processing
+            ArchetypeHelper first = projects.get(0);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String fullName = entry.getName();
+                if (entry.isDirectory() || fullName == null || !fullName.startsWith(ArchetypeDescriptor.RESOURCES_PREFIX)) {
+                    continue;
+                }
+                String name = fullName.substring(ArchetypeDescriptor.RESOURCES_PREFIX.length());
+                time = System.nanoTime();
+                if (first.isBinary(name)) {
+                    ZipCentralDirectory.Entry rawEntry = directory != null ? directory.getEntry(fullName) : null;
+                    byte[] data = null;
+                    if (rawEntry == null || !rawEntry.isStored()) {
+                        // inflate once for all the projects
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            IOHelpers.copy(in, bos);
+                        }
+                        data = bos.toByteArray();
+                    }
+                    sharedNanos += System.nanoTime() - time;
+                    for (ProjectReport report : reports) {
+                        time = System.nanoTime();
+                        String outputPath = report.project.outputPath(name);
+                        try (OutputStream out = openFile(report, outputPath)) {
+                            if (data != null) {
+                                out.write(data);
+                            } else {
+                                ZipCentralDirectory.transferStored(channel, rawEntry, ((FileOutputStream) out).getChannel());
+                            }
+                        }
+                        report.written(outputPath, System.nanoTime() - time);
+                    }
+                } else {
+                    StringWriter text = new StringWriter();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        first.transformContents(new InputStreamReader(in, StandardCharsets.UTF_8), text, new VariableReplacer());
+                    }
+                    final ArchetypeTemplate.Entry compiled = new ArchetypeTemplate.Entry(name, null, first.compileText(text.toString()));
+                    sharedNanos += System.nanoTime() - time;
+                    for (final ProjectReport report : reports) {
+                        time = System.nanoTime();
+                        String outputPath = report.project.outputPath(name);
+                        try (OutputStream out = openFile(report, outputPath)) {
+                            report.project.writeText(outputPath, out, new ArchetypeHelper.TextSource() {
+                                @Override
+                                public void writeTo(Writer writer) throws IOException {
+                                    compiled.writeTo(writer, report.project.getReplacer());
+                                }
+                            });
+                        }
+                        report.written(outputPath, System.nanoTime() - time);
+                    }
+                }
+            }
+
+            for (ProjectReport report : reports) {
+                time = System.nanoTime();
+                report.project.finish(report.sink);
+                report.nanos += System.nanoTime() - time;
+            }
+        }
+        return new BatchReport(reports, sharedNanos, System.nanoTime() - start);
+    }
+
+    private OutputStream openFile(ProjectReport report, String path) throws IOException {
+        int idx = path.lastIndexOf('/');
+        if (idx > 0) {
+            report.sink.createDirectory(path.substring(0, idx));
+        }
+        return report.sink.openFile(path);
+    }
+
+    /**
+     * The outcome of generating a batch of projects
+     */
+    public static class BatchReport {
+        private final List<ProjectReport> projects;
+        private final long sharedNanos;
+        private final long totalNanos;
+
+        public BatchReport(List<ProjectReport> projects, long sharedNanos, long totalNanos) {
+            this.projects = Collections.unmodifiableList(projects);
+            this.sharedNanos = sharedNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        public List<ProjectReport> getProjects() {
+            return projects;
+        }
+
+        /**
+         * Returns the time spent reading and processing the archetype, which is shared by all the projects
+         */
+        public long getSharedMillis() {
+            return sharedNanos / 1000000;
+        }
+
+        public long getTotalMillis() {
+            return totalNanos / 1000000;
+        }
+
+        /**
+         * Returns the number of projects generated per second over the whole batch
+         */
+        public double getProjectsPerSecond() {
+            return totalNanos > 0 ? projects.size() * 1e9 / totalNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Generated " + projects.size() + " projects in " + getTotalMillis() + " ms (" + getSharedMillis()
+                    + " ms reading the archetype, " + String.format("%.1f", getProjectsPerSecond()) + " projects/s)";
+        }
+    }
+
+    /**
+     * How many files and bytes were written for a project and how long it took
+     */
+    public static class ProjectReport {
+        private final ArchetypeHelper project;
+        private final DirectoryOutputSink sink;
+        private int files;
+        private long bytes;
+        private long nanos;
+
+        public ProjectReport(ArchetypeHelper project) {
+            this.project = project;
+            this.sink = new DirectoryOutputSink(project.getOutputDir());
+        }
+
+        protected void written(String path, long elapsedNanos) {
+            files++;
+            bytes += new File(project.getOutputDir(), path).length();
+            nanos += elapsedNanos;
+        }
+
+        public File getOutputDir() {
+            return project.getOutputDir();
+        }
+
+        public String getArtifactId() {
+            return project.getArtifactId();
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the time spent writing this project, excluding the time spent reading the archetype
+         */
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        public double getBytesPerSecond() {
+            return nanos > 0 ? bytes * 1e9 / nanos : 0;
+        }
+
+        public double getFilesPerSecond() {
+            return nanos > 0 ? files * 1e9 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return getArtifactId() + ": " + files + " files, " + bytes + " bytes in " + getMillis() + " ms";
+        }
+    }
+}
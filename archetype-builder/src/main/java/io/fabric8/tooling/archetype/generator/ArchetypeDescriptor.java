@@ -0,0 +1,246 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The parsed contents of an archetype jar: the required properties declared in
+ * <code>META-INF/maven/archetype-metadata.xml</code> with their default values and the resources of the archetype.
+ * <p/>
+ * Descriptors are immutable and are cached by the path, size and last modified time of the jar, so each jar
+ * is only parsed once however many projects are generated from it.
+ */
+public class ArchetypeDescriptor {
+
+    public static final String ARCHETYPE_DESCRIPTOR_URI = "http://maven.apache.org/plugins/maven-archetype-plugin/archetype-descriptor/1.0.0";
+    public static final String METADATA_ENTRY = "META-INF/maven/archetype-metadata.xml";
+    public static final String RESOURCES_PREFIX = "archetype-resources/";
+
+    private static final int MAX_CACHED = 256;
+    private static final Map<String, ArchetypeDescriptor> CACHE = new LinkedHashMap<String, ArchetypeDescriptor>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArchetypeDescriptor> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private final Map<String, String> properties;
+    private final List<Resource> resources;
+    private final long length;
+    private final long lastModified;
+
+    public ArchetypeDescriptor(Map<String, String> properties, List<Resource> resources, long length, long lastModified) {
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+        this.resources = Collections.unmodifiableList(new ArrayList<>(resources));
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the descriptor of the given archetype jar, parsing the jar if it has not been parsed before or has changed
+     */
+    public static ArchetypeDescriptor load(File archetypeFile) throws IOException {
+        ArchetypeDescriptor answer = getCached(archetypeFile);
+        if (answer == null) {
+            try (ZipFile zip = new ZipFile(archetypeFile)) {
+                answer = load(archetypeFile, zip);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the descriptor of the given archetype jar, parsing it from the already open zip file if need be
+     */
+    public static ArchetypeDescriptor load(File archetypeFile, ZipFile zip) throws IOException {
+        ArchetypeDescriptor answer = getCached(archetypeFile);
+        if (answer == null) {
+            answer = parse(zip, archetypeFile.length(), archetypeFile.lastModified());
+            synchronized (CACHE) {
+                CACHE.put(archetypeFile.getCanonicalPath(), answer);
+            }
+        }
+        return answer;
+    }
+
+    protected static ArchetypeDescriptor getCached(File archetypeFile) throws IOException {
+        String key = archetypeFile.getCanonicalPath();
+        synchronized (CACHE) {
+            ArchetypeDescriptor answer = CACHE.get(key);
+            if (answer != null && (answer.length != archetypeFile.length() || answer.lastModified != archetypeFile.lastModified())) {
+                CACHE.remove(key);
+                answer = null;
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * Parses the descriptor and the list of resources of the given archetype jar without caching it
+     */
+    public static ArchetypeDescriptor parse(ZipFile zip, long length, long lastModified) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        ZipEntry metadata = zip.getEntry(METADATA_ENTRY);
+        if (metadata != null) {
+            try (InputStream in = zip.getInputStream(metadata)) {
+                parseProperties(in, properties);
+            }
+        }
+        List<Resource> resources = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (!entry.isDirectory() && name != null && name.startsWith(RESOURCES_PREFIX)) {
+                resources.add(new Resource(name.substring(RESOURCES_PREFIX.length()), entry.getSize()));
+            }
+        }
+        return new ArchetypeDescriptor(properties, resources, length, lastModified);
+    }
+
+    /**
+     * Reads the required properties and their default values from an archetype descriptor, in a single pass
+     * over the XML
+     */
+    public static void parseProperties(InputStream in, Map<String, String> properties) throws IOException {
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                // the path of elements we care about: archetype-descriptor/requiredProperties/requiredProperty
+                int depth = 0;
+                int matchedDepth = 0;
+                String key = null;
+                int defaultValues = 0;
+                StringBuilder defaultValue = new StringBuilder();
+                int defaultValueDepth = -1;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        String localName = reader.getLocalName();
+                        boolean inNamespace = ARCHETYPE_DESCRIPTOR_URI.equals(reader.getNamespaceURI());
+                        if (matchedDepth == depth - 1 && inNamespace && depth <= 3
+                                && localName.equals(depth == 1 ? "archetype-descriptor" : depth == 2 ? "requiredProperties" : "requiredProperty")) {
+                            matchedDepth = depth;
+                            if (depth == 3) {
+                                String value = reader.getAttributeValue(null, "key");
+                                key = value != null ? value : "";
+                                defaultValues = 0;
+                                defaultValue.setLength(0);
+                            }
+                        } else if (key != null && inNamespace && "defaultValue".equals(localName)) {
+                            if (defaultValues++ == 0) {
+                                defaultValueDepth = depth;
+                            }
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == defaultValueDepth) {
+                            defaultValueDepth = -1;
+                        }
+                        if (depth == 3 && matchedDepth == 3) {
+                            String value = "";
+                            if (defaultValues == 1 && defaultValue.length() > 0) {
+                                value = defaultValue.toString();
+                            } else if ("name".equals(key)) {
+                                value = "HelloWorld";
+                            }
+                            properties.put(key, value);
+                            key = null;
+                        }
+                        if (matchedDepth == depth) {
+                            matchedDepth--;
+                        }
+                        depth--;
+                    } else if (defaultValueDepth > 0 && defaultValues == 1 && (event == XMLStreamConstants.CHARACTERS
+                            || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE)) {
+                        defaultValue.append(reader.getText());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse archetype descriptor due: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the required properties of the archetype with their default values
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the resources of the archetype, relative to <code>archetype-resources/</code>, in the order of the jar
+     */
+    public List<Resource> getResources() {
+        return resources;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchetypeDescriptor(properties: " + properties + ", " + resources.size() + " resources)";
+    }
+
+    /**
+     * A file of the archetype
+     */
+    public static class Resource {
+        private final String name;
+        private final long size;
+
+        public Resource(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * Returns the path of the resource relative to <code>archetype-resources/</code>
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the uncompressed size of the resource or -1 if it is not known
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.utils.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long running HTTP service which generates projects from archetype jars and streams each project back as a
+ * zip, so that generating a project does not need a new JVM and <code>mvn archetype:generate</code>.
+ * <p/>
+ * Projects are generated by {@link ArchetypeHelper} from the shared {@link ArchetypeTemplateCache}, so each
+ * archetype jar is only read once, and are written straight into the response through a {@link ZipOutputSink}
+ * without any temporary files. A request such as
+ * <pre>
+ *     GET /generate?archetype=java-simple-archetype&amp;groupId=org.example&amp;artifactId=hello&amp;package=org.example.hello
+ * </pre>
+ * returns <code>hello.zip</code> with the project in a <code>hello/</code> directory. The parameters may also be
+ * posted as a form. Any parameters other than <code>archetype</code>, <code>archetypeVersion</code>,
+ * <code>groupId</code>, <code>artifactId</code>, <code>version</code>, <code>package</code>, <code>name</code>
+ * and <code>description</code> override the properties of the archetype. As properties can be used in the
+ * names of the generated files their values may not contain <code>/</code>, <code>\</code> or <code>..</code>.
+ * <p/>
+ * At most {@link #setMaxConcurrent(int) maxConcurrent} projects are generated at the same time and at most
+ * {@link #setMaxQueued(int) maxQueued} more requests wait for their turn; any other requests, or requests which
+ * have waited longer than the {@link #setQueueTimeoutMillis(long) queue timeout}, get a
+ * <code>503 Service Unavailable</code> response with a <code>Retry-After</code> header rather than piling up.
+ */
+public class ArchetypeGeneratorServer {
+
+    public static Logger LOG = LoggerFactory.getLogger(ArchetypeGeneratorServer.class);
+
+    public static final String PORT_PROPERTY = "generator.port";
+    public static final String GENERATE_PATH = "/generate";
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.\\-]+");
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+    private static final int MAX_FORM_SIZE = 64 * 1024;
+
+    private final File archetypesDir;
+    private ArchetypeTemplateCache templateCache = ArchetypeTemplateCache.getSharedCache();
+    private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+    private int maxQueued = 4 * maxConcurrent;
+    private long queueTimeoutMillis = 10000;
+
+    private final Map<String, File> archetypeFiles = new ConcurrentHashMap<>();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+    private Semaphore admitted;
+    private Semaphore generating;
+    private volatile boolean stopping;
+
+    /**
+     * @param archetypesDir the directory containing the archetype jars, named <code>artifactId-version.jar</code>
+     */
+    public ArchetypeGeneratorServer(File archetypesDir) {
+        this.archetypesDir = archetypesDir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String basedir = System.getProperty("basedir");
+        if (Strings.isNullOrBlank(basedir)) {
+            basedir = ".";
+        }
+        String archetypesPath = System.getProperty("archetypesdir");
+        File archetypesDir = Strings.isNotBlank(archetypesPath) ? new File(archetypesPath) : new File(basedir, "target/archetypes");
+        int port = Integer.parseInt(System.getProperty(PORT_PROPERTY, "8081"));
+
+        ArchetypeGeneratorServer server = new ArchetypeGeneratorServer(archetypesDir.getCanonicalFile());
+        String maxConcurrent = System.getProperty("generator.maxConcurrent");
+        if (Strings.isNotBlank(maxConcurrent)) {
+            server.setMaxConcurrent(Integer.parseInt(maxConcurrent.trim()));
+        }
+        server.start(port);
+        System.out.println("Generating projects at http://localhost:" + server.getPort() + GENERATE_PATH);
+    }
+
+    public void setTemplateCache(ArchetypeTemplateCache templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Sets the number of projects which are generated at the same time
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Sets the number of requests which may wait for a project to be generated before requests are rejected
+     */
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = Math.max(0, maxQueued);
+    }
+
+    /**
+     * Sets how long a request waits for a project to be generated before it is rejected
+     */
+    public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of projects generated since the server was created
+     */
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    /**
+     * Returns the number of requests which were rejected as the server was too busy
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Starts the server on the given port of all interfaces; or any free port if the port is 0
+     */
+    public void start(int port) throws IOException {
+        start(new InetSocketAddress(port));
+    }
+
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Generator server is already started on port " + getPort());
+        }
+        stopping = false;
+        admitted = new Semaphore(maxConcurrent + maxQueued);
+        generating = new Semaphore(maxConcurrent, true);
+        server = HttpServer.create(address, 0);
+        server.createContext(GENERATE_PATH, new GenerateHandler());
+        // every admitted request has its own thread, and the rest are rejected straight away
+        executor = Executors.newFixedThreadPool(maxConcurrent + maxQueued + 1);
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Generating projects from the archetypes in " + archetypesDir + " on port " + getPort()
+                + " with " + maxConcurrent + " concurrent generations");
+    }
+
+    /**
+     * Stops the server, waiting up to 30 seconds for the projects being generated to be sent
+     */
+    public void stop() {
+        stop(30);
+    }
+
+    /**
+     * Stops accepting requests and waits up to the given number of seconds for the projects being generated to be
+     * sent before the server is closed
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (server != null) {
+            stopping = true;
+            int permits = maxConcurrent + maxQueued;
+            try {
+                // every admitted request holds a permit until its response is complete
+                if (!admitted.tryAcquire(permits, delaySeconds, TimeUnit.SECONDS)) {
+                    LOG.warn("Closing the connections of the projects still being generated after waiting "
+                            + delaySeconds + " seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    /**
+     * Returns the jar of the archetype with the given artifactId and optional version; or null if there is no
+     * such archetype. If there are several versions and no version is given the most recently modified jar is used.
+     */
+    protected File findArchetype(String artifactId, String version) {
+        // only exact versions are cached, so a newer jar dropped into the directory is picked up
+        String key = version != null ? artifactId + ":" + version : null;
+        File answer = key != null ? archetypeFiles.get(key) : null;
+        if (answer != null && answer.isFile()) {
+            return answer;
+        }
+        answer = null;
+        File[] files = archetypesDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || !name.endsWith(".jar") || !name.startsWith(artifactId + "-")) {
+                    continue;
+                }
+                String fileVersion = name.substring(artifactId.length() + 1, name.length() - 4);
+                if (fileVersion.isEmpty() || !Character.isDigit(fileVersion.charAt(0))
+                        || fileVersion.endsWith("-sources") || fileVersion.endsWith("-javadoc")) {
+                    continue;
+                }
+                if (version != null ? version.equals(fileVersion)
+                        : answer == null || file.lastModified() > answer.lastModified()) {
+                    answer = file;
+                }
+            }
+        }
+        if (answer != null && key != null) {
+            archetypeFiles.put(key, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Generates a project for each request, streaming it back as a zip
+     */
+    protected class GenerateHandler implements HttpHandler {
+        /**
+         * The exchange is only closed once the response is complete; if an exception is thrown the server drops
+         * the connection instead, so that a zip which failed part way through is not mistaken for a complete one
+         */
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"POST".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            if (stopping || !admitted.tryAcquire()) {
+                reject(exchange);
+                exchange.close();
+                return;
+            }
+            try {
+                handle(exchange, method);
+                exchange.close();
+            } finally {
+                admitted.release();
+            }
+        }
+
+        protected void handle(HttpExchange exchange, String method) throws IOException {
+            Map<String, String> parameters = new HashMap<>();
+            try {
+                parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+                if ("POST".equals(method)) {
+                    String form = readForm(exchange.getRequestBody());
+                    if (form == null) {
+                        sendError(exchange, 413, "The form is larger than " + MAX_FORM_SIZE + " bytes");
+                        return;
+                    }
+                    parseParameters(form, parameters);
+                }
+            } catch (IllegalArgumentException e) {
+                // such as a malformed % escape
+                sendError(exchange, 400, "Invalid parameters: " + e.getMessage());
+                return;
+            }
+            String archetype = parameters.remove("archetype");
+            String archetypeVersion = parameters.remove("archetypeVersion");
+            String groupId = parameters.remove("groupId");
+            String artifactId = parameters.remove("artifactId");
+            String version = parameters.remove("version");
+            String packageName = parameters.remove("package");
+            String name = parameters.remove("name");
+            String description = parameters.remove("description");
+
+            if (!isValidName(archetype) || !isValidName(groupId) || !isValidName(artifactId)
+                    || (archetypeVersion != null && !isValidName(archetypeVersion))
+                    || (Strings.isNotBlank(version) && !isValidName(version))) {
+                sendError(exchange, 400, "The archetype, groupId and artifactId parameters are required");
+                return;
+            }
+            if (Strings.isNotBlank(packageName) && !PACKAGE_PATTERN.matcher(packageName).matches()) {
+                sendError(exchange, 400, "Invalid package name: " + packageName);
+                return;
+            }
+            // the properties can be used in the names of the generated files so they must not contain paths
+            for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                if (!isValidPropertyValue(entry.getValue())) {
+                    sendError(exchange, 400, "Invalid value of property " + entry.getKey() + ": " + entry.getValue());
+                    return;
+                }
+            }
+            File archetypeFile = findArchetype(archetype, archetypeVersion);
+            if (archetypeFile == null) {
+                sendError(exchange, 404, "No such archetype: " + archetype);
+                return;
+            }
+
+            try {
+                if (!generating.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    reject(exchange);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reject(exchange);
+                return;
+            }
+            try {
+                ArchetypeHelper helper = createHelper(archetypeFile, groupId, artifactId,
+                        Strings.isNotBlank(version) ? version : "1.0-SNAPSHOT", name, description);
+                helper.setTemplateCache(templateCache);
+                if (Strings.isNotBlank(packageName)) {
+                    helper.setPackageName(packageName);
+                }
+                helper.setOverrideProperties(parameters);
+                try {
+                    // a broken archetype gets an error status rather than an empty zip
+                    helper.getDescriptor();
+                } catch (IOException e) {
+                    LOG.warn("Failed to read archetype " + archetypeFile + " due: " + e.getMessage(), e);
+                    sendError(exchange, 500, "Failed to read archetype " + archetype);
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/zip");
+                exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + artifactId + ".zip\"");
+                // the zip is streamed as it is generated so its length is not known up front
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024);
+                try {
+                    ZipOutputSink sink = new ZipOutputSink(out, artifactId + "/");
+                    helper.execute(sink);
+                    // counted before the end of the zip is sent, so a client which has read the zip sees the count
+                    generated.incrementAndGet();
+                    sink.finish();
+                    out.flush();
+                } catch (IOException e) {
+                    LOG.warn("Failed to generate " + artifactId + " from " + archetypeFile + " due: " + e.getMessage(), e);
+                    // the status has already been sent, so the connection is dropped rather than ending the response
+                    throw e;
+                }
+            } finally {
+                generating.release();
+            }
+        }
+    }
+
+    /**
+     * Creates the helper which generates a project
+     */
+    protected ArchetypeHelper createHelper(File archetypeFile, String groupId, String artifactId, String version,
+                                           String name, String description) {
+        return new ArchetypeHelper(archetypeFile, null, groupId, artifactId, version, name, description);
+    }
+
+    protected void reject(HttpExchange exchange) throws IOException {
+        rejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendError(exchange, 503, "Too many projects are being generated, please try again later");
+    }
+
+    protected static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Returns true if the value of a property cannot take a generated file outside the project directory
+     */
+    protected static boolean isValidPropertyValue(String value) {
+        return value == null || (!value.contains("/") && !value.contains("\\") && !value.contains(".."));
+    }
+
+    protected static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches() && !name.startsWith(".");
+    }
+
+    /**
+     * Adds the parameters of a query string or form to the map, keeping the first value of each parameter
+     */
+    protected static void parseParameters(String text, Map<String, String> parameters) throws IOException {
+        if (Strings.isNullOrBlank(text)) {
+            return;
+        }
+        for (String pair : text.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int idx = pair.indexOf('=');
+            String key = URLDecoder.decode(idx >= 0 ? pair.substring(0, idx) : pair, "UTF-8");
+            String value = idx >= 0 ? URLDecoder.decode(pair.substring(idx + 1), "UTF-8") : "";
+            if (!parameters.containsKey(key)) {
+                parameters.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Reads a posted form; or returns null if it is too large
+     */
+    private static String readForm(InputStream in) throws IOException {
+        byte[] buffer = new byte[MAX_FORM_SIZE];
+        int size = 0;
+        int count;
+        while (size < buffer.length && (count = in.read(buffer, size, buffer.length - size)) > 0) {
+            size += count;
+        }
+        if (size == buffer.length && in.read() >= 0) {
+            return null;
+        }
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchetypeGeneratorServer(" + archetypesDir + ")";
+    }
+}
@@ -17,34 +17,44 @@ package io.fabric8.tooling.archetype.generator;
 
 import io.fabric8.utils.IOHelpers;
 import io.fabric8.utils.Strings;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
+
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 /**
@@ -53,9 +63,6 @@ import java.util.zip.ZipFile;
  */
 public class ArchetypeHelper {
 
-    private static String archetypeDescriptorUri = "http://maven.apache.org/plugins/maven-archetype-plugin/archetype-descriptor/1.0.0";
-    private static String requiredPropertyXPath = "/ad:archetype-descriptor/ad:requiredProperties/ad:requiredProperty";
-
     /* Value properties - initialized in constructor */
 
     private File archetypeFile;
@@ -73,11 +80,19 @@ public class ArchetypeHelper {
     private Boolean createDefaultDirectories = Boolean.TRUE;
 
     private Map<String, String> overrideProperties = new HashMap<String, String>();
-
-    private String zipEntryPrefix = "archetype-resources/";
+    private Map<String, String> replaceProperties;
+    private String packageDir;
+    private VariableReplacer replacer;
+    private volatile boolean pomWritten;
+    private ArchetypeTemplateCache templateCache;
+    private int parallelism = 1;
+
+    private String zipEntryPrefix = ArchetypeDescriptor.RESOURCES_PREFIX;
     private List<String> binarySuffixes = Arrays.asList(".png", ".ico", ".gif", ".jpg", ".jpeg", ".bmp");
 
     protected String webInfResources = "src/main/webapp/WEB-INF/resources";
+    protected static final Pattern FILE_PROPERTY_PATTERN = Pattern.compile("__[A-Za-z][A-Za-z0-9]*__");
+    protected static final Pattern ESCAPED_PLACEHOLDER_PATTERN = Pattern.compile("\\$\\{D\\}\\{([^}]*)\\}");
     protected Pattern sourcePathRegexPattern = Pattern.compile("(src/(main|test)/(java|groovy|kotlin)/)(.*)");
 
     public ArchetypeHelper(File archetypeFile, File outputDir, String groupId, String artifactId, String version, String name, String description) {
@@ -100,6 +115,26 @@ public class ArchetypeHelper {
         }
     }
 
+    public File getArchetypeFile() {
+        return archetypeFile;
+    }
+
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
     public void setPackageName(String packageName) {
         this.packageName = packageName;
     }
@@ -108,244 +143,688 @@ public class ArchetypeHelper {
         this.overrideProperties = overrideProperties;
     }
 
+    public ArchetypeTemplateCache getTemplateCache() {
+        return templateCache;
+    }
+
+    /**
+     * Sets the cache of compiled archetypes to use so that generating many projects from the same archetype
+     * jar only reads the jar once; by default the jar is read on each execution
+     */
+    public void setTemplateCache(ArchetypeTemplateCache templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads used to extract and transform the files of the archetype; by default
+     * the files are written one at a time on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     /**
      * GenerateArchetypes method which extracts given Maven Archetype in destination directory
      */
     public int execute() throws IOException {
-        outputDir.mkdirs();
+        return execute(new DirectoryOutputSink(outputDir));
+    }
 
+    /**
+     * Generates the project into the given sink, such as a zip stream, rather than the output directory
+     */
+    public int execute(OutputSink sink) throws IOException {
+        ArchetypeTemplate template = templateCache != null ? loadTemplate() : null;
+        if (template != null) {
+            prepare(template.getDescriptor());
+            writeFiles(templateTasks(template, sink), sink);
+        } else {
+            ZipFile zip = null;
+            FileChannel channel = null;
+            try {
+                // the jar is only opened once, for both the descriptor and the files
+                zip = new ZipFile(archetypeFile);
+                prepare(ArchetypeDescriptor.load(archetypeFile, zip));
+
+                channel = FileChannel.open(archetypeFile.toPath(), StandardOpenOption.READ);
+                ZipCentralDirectory directory = null;
+                try {
+                    directory = ZipCentralDirectory.read(channel);
+                } catch (ZipException e) {
+                    debug("Copying binary files through the heap as the central directory could not be read: " + e.getMessage());
+                }
+                writeFiles(zipTasks(zip, channel, directory, sink), sink);
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                if (zip != null) {
+                    IOHelpers.close(zip);
+                }
+                if (channel != null) {
+                    IOHelpers.close(channel);
+                }
+            }
+        }
+        finish(sink);
+        return 0;
+    }
+
+    /**
+     * Works out the package and the values of the properties before any files are written
+     */
+    protected void prepare(ArchetypeDescriptor descriptor) {
         if (packageName == null || packageName.length() == 0) {
             packageName = groupId + "." + artifactId;
         }
 
-        String packageDir = packageName.replace('.', '/');
+        packageDir = packageName.replace('.', '/');
 
         debug("Creating archetype using Maven groupId: " + groupId + ", artifactId: " + artifactId + ", version: " + version + " in directory: " + outputDir);
 
-        Map<String, String> replaceProperties = parseProperties();
+        replaceProperties = new HashMap<>(descriptor.getProperties());
         replaceProperties.putAll(overrideProperties);
 
         debug("Using replace properties: " + replaceProperties);
+        replacer = createReplacer(replaceProperties);
+        pomWritten = false;
+    }
 
-        ZipFile zip = null;
-        try {
-            zip = new ZipFile(archetypeFile);
-            Enumeration<? extends ZipEntry> entries = zip.entries();
-            while (entries.hasMoreElements()) {
-                final ZipEntry entry = entries.nextElement();
-                if (!entry.isDirectory()) {
-                    String fullName = entry.getName();
-                    if (fullName != null && fullName.startsWith(zipEntryPrefix)) {
-                        String name = replaceFileProperties(fullName.substring(zipEntryPrefix.length()), replaceProperties);
-                        debug("Processing resource: " + name);
-
-                        int idx = name.lastIndexOf('/');
-                        Matcher matcher = sourcePathRegexPattern.matcher(name);
-                        String dirName;
-                        if (packageName.length() > 0 && idx > 0 && matcher.matches()) {
-                            String prefix = matcher.group(1);
-                            dirName = prefix + packageDir + "/" + name.substring(prefix.length());
-                        } else if (packageName.length() > 0 && name.startsWith(webInfResources)) {
-                            dirName = "src/main/webapp/WEB-INF/" + packageDir + "/resources" + name.substring(webInfResources.length());
-                        } else {
-                            dirName = name;
+    /**
+     * Creates the default directories once all the files have been written
+     */
+    protected void finish(OutputSink sink) throws IOException {
+        if (!replaceProperties.isEmpty() && !pomWritten) {
+            // must be non maven archetype?
+            return;
+        }
+
+        // now lets create the default directories
+        for (String dir : defaultDirectories()) {
+            sink.createDirectory(dir);
+        }
+    }
+
+    /**
+     * Returns the source directories which are created even if the archetype has no files in them
+     */
+    protected List<String> defaultDirectories() {
+        List<String> answer = new ArrayList<>();
+        if (createDefaultDirectories) {
+            String srcDirName = "java";
+
+            for (String dir : new String[]{"src/main", "src/test"}) {
+                for (String name : new String[]{srcDirName + "/" + packageDir, "resources"}) {
+                    answer.add(dir + "/" + name);
+                }
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Works out the files which would be generated, with the properties they use and the placeholders which
+     * have no value, in a single pass over the archetype and without writing anything
+     */
+    public ArchetypePlan plan() throws IOException {
+        try (ZipFile zip = new ZipFile(archetypeFile)) {
+            ArchetypeDescriptor descriptor = ArchetypeDescriptor.load(archetypeFile, zip);
+            prepare(descriptor);
+
+            // keyed by path so that, as when generating, the last entry for a file wins
+            Map<String, ArchetypePlan.PlannedFile> files = new LinkedHashMap<>();
+            VariableReplacer velocityOnly = new VariableReplacer();
+            for (ArchetypeDescriptor.Resource resource : descriptor.getResources()) {
+                String resourceName = resource.getName();
+                String path = outputPath(resourceName);
+                Set<String> properties = new LinkedHashSet<>();
+                Set<String> unresolved = new LinkedHashSet<>();
+                for (String key : replaceProperties.keySet()) {
+                    if (resourceName.contains("__" + key + "__")) {
+                        properties.add(key);
+                    }
+                }
+                Matcher matcher = FILE_PROPERTY_PATTERN.matcher(path);
+                while (matcher.find()) {
+                    unresolved.add(matcher.group());
+                }
+
+                boolean binary = isBinary(resourceName);
+                if (!binary) {
+                    ZipEntry entry = zip.getEntry(zipEntryPrefix + resourceName);
+                    String source = IOHelpers.readFully(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8));
+                    // placeholders written as ${D}{name} are meant to be left in the generated file
+                    Set<String> escaped = new HashSet<>();
+                    Matcher escapes = ESCAPED_PLACEHOLDER_PATTERN.matcher(source);
+                    while (escapes.find()) {
+                        escaped.add("${" + escapes.group(1) + "}");
+                    }
+                    // the placeholders left in a pom are maven properties
+                    boolean pom = path.equals("pom.xml") || path.endsWith("/pom.xml");
+                    StringWriter text = new StringWriter();
+                    transformContents(new StringReader(source), text, velocityOnly);
+                    for (ArchetypeTemplate.Segment segment : compileText(text.toString())) {
+                        String name = segment.getName();
+                        if (name != null) {
+                            String value = segment.isBare() ? replacer.getBareValue(name) : replacer.getValue(name);
+                            if (value != null) {
+                                properties.add(name);
+                            } else if (!segment.isBare() && !pom && !escaped.contains(segment.getText())) {
+                                // bare tokens without a value are usually shell or script variables
+                                unresolved.add(segment.getText());
+                            }
                         }
+                    }
+                }
+                files.put(path, new ArchetypePlan.PlannedFile(resourceName, path, resource.getSize(), binary, properties, unresolved));
+            }
+
+            List<String> directories = Collections.emptyList();
+            boolean pom = false;
+            for (ArchetypePlan.PlannedFile file : files.values()) {
+                pom |= !file.isBinary() && isProjectPom(file.getPath());
+            }
+            if (replaceProperties.isEmpty() || pom) {
+                directories = defaultDirectories();
+            }
+            return new ArchetypePlan(packageDir, replaceProperties, new ArrayList<>(files.values()), directories);
+        }
+    }
+
+    /**
+     * Returns true if the generated file with the given path is the pom.xml of the project
+     */
+    protected boolean isProjectPom(String path) {
+        return "pom.xml".equals(path);
+    }
+
+    /**
+     * Replaces the properties in the pom.xml again, along with the custom name and description, if there are any
+     */
+    protected String transformPom(String text) {
+        if (replaceProperties.isEmpty()) {
+            return text;
+        }
+        VariableReplacer propertyReplacer = new VariableReplacer();
+        addVariables(propertyReplacer, replaceProperties);
+        text = propertyReplacer.replace(text);
+        // replace name if we have a custom name
+        if (Strings.isNotBlank(name)) {
+            text = text.replaceFirst("<name>(.*)</name>", Matcher.quoteReplacement("<name>" + name + "</name>"));
+        }
+        // replace description if we have a custom description
+        if (Strings.isNotBlank(description)) {
+            text = text.replaceFirst("<description>(.*)</description>", Matcher.quoteReplacement("<description>" + description + "</description>"));
+        }
+        return text;
+    }
 
-                        // lets replace properties...
-                        File file = new File(outputDir, dirName);
-                        file.getParentFile().mkdirs();
-                        FileOutputStream out = null;
-                        try {
-                            out = new FileOutputStream(file);
-                            boolean isBinary = false;
-                            for (String suffix : binarySuffixes) {
-                                if (name.endsWith(suffix)) {
-                                    isBinary = true;
-                                    break;
+    /**
+     * Writes a text file to the given stream as UTF-8. The pom.xml is transformed in memory first, as it
+     * needs a second pass over its contents.
+     */
+    protected void writeText(String path, OutputStream out, TextSource source) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        if (isProjectPom(path)) {
+            StringWriter buffer = new StringWriter();
+            source.writeTo(buffer);
+            writer.write(transformPom(buffer.toString()));
+            pomWritten = true;
+        } else {
+            source.writeTo(writer);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the transformed contents of a text file
+     */
+    protected interface TextSource {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Returns the path of the file generated for the given archetype resource, once {@link #prepare(ArchetypeDescriptor)} has been called
+     */
+    protected String outputPath(String resourceName) {
+        return outputPath(replaceFileProperties(resourceName, replaceProperties), packageDir);
+    }
+
+    protected VariableReplacer getReplacer() {
+        return replacer;
+    }
+
+    /**
+     * Returns the tasks which write the resources of the archetype jar into the sink
+     */
+    protected Collection<FileTask> zipTasks(final ZipFile zip, final FileChannel channel, ZipCentralDirectory directory, OutputSink sink) {
+        // keyed by path so that, as when writing the files in order, the last entry for a file wins
+        Map<String, FileTask> tasks = new LinkedHashMap<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                String fullName = entry.getName();
+                if (fullName != null && fullName.startsWith(zipEntryPrefix)) {
+                    String name = replaceFileProperties(fullName.substring(zipEntryPrefix.length()), replaceProperties);
+                    debug("Processing resource: " + name);
+
+                    final String path = outputPath(name, packageDir);
+                    final ZipCentralDirectory.Entry rawEntry = directory != null ? directory.getEntry(fullName) : null;
+                    if (isBinary(name)) {
+                        // binary file?  don't transform.
+                        tasks.put(path, new FileTask(path, sink) {
+                            @Override
+                            protected void write(OutputStream out) throws IOException {
+                                if (rawEntry != null && rawEntry.isStored() && out instanceof FileOutputStream) {
+                                    // uncompressed so copy straight from the jar to the file
+                                    ZipCentralDirectory.transferStored(channel, rawEntry, ((FileOutputStream) out).getChannel());
+                                } else {
+                                    try (InputStream in = zip.getInputStream(entry)) {
+                                        copyBinary(in, out);
+                                    }
                                 }
                             }
-                            if (isBinary) {
-                                // binary file?  don't transform.
-                                IOHelpers.copy(zip.getInputStream(entry), out);
-                            } else {
-                                // text file...
-                                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                                IOHelpers.copy(zip.getInputStream(entry), bos);
-                                String text = new String(bos.toByteArray(), "UTF-8");
-                                out.write(transformContents(text, replaceProperties).getBytes());
-                            }
-                        } finally {
-                            if (out != null) {
-                                IOHelpers.close(out);
+                        });
+                    } else {
+                        // text file... lets replace properties
+                        tasks.put(path, new FileTask(path, sink) {
+                            @Override
+                            protected void write(OutputStream out) throws IOException {
+                                try (final Reader reader = new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8)) {
+                                    writeText(path, out, new TextSource() {
+                                        @Override
+                                        public void writeTo(Writer writer) throws IOException {
+                                            transformContents(reader, writer, replacer);
+                                        }
+                                    });
+                                }
                             }
-                        }
+                        });
                     }
                 }
             }
-        } catch (Exception e) {
-            throw new IOException(e.getMessage(), e);
-        } finally {
-            if (zip != null) {
-                IOHelpers.close(zip);
+        }
+        return tasks.values();
+    }
+
+    /**
+     * Returns the tasks which write the files of the compiled archetype into the sink
+     */
+    protected Collection<FileTask> templateTasks(ArchetypeTemplate template, OutputSink sink) {
+        Map<String, FileTask> tasks = new LinkedHashMap<>();
+        for (final ArchetypeTemplate.Entry entry : template.getEntries()) {
+            final String path;
+            if (entry.getPath() != null) {
+                path = entry.getPath().resolve(packageDir);
+            } else {
+                path = outputPath(entry.getName());
             }
+            debug("Processing resource: " + path);
+
+            tasks.put(path, new FileTask(path, sink) {
+                @Override
+                protected void write(OutputStream out) throws IOException {
+                    if (entry.isBinary()) {
+                        entry.writeTo(out);
+                    } else {
+                        writeText(path, out, new TextSource() {
+                            @Override
+                            public void writeTo(Writer writer) throws IOException {
+                                entry.writeTo(writer, replacer);
+                            }
+                        });
+                    }
+                }
+            });
         }
+        return tasks.values();
+    }
 
-        // now lets replace all the properties in the pom.xml
-        if (!replaceProperties.isEmpty()) {
-            File pom = new File(outputDir, "pom.xml");
-            if (!pom.isFile()) {
-                // must be non maven archetype?
-                return 0;
+    /**
+     * Runs the tasks which write the generated files, concurrently if a parallelism greater than one has been set
+     * and the sink supports it, returning once all the files have been written
+     */
+    protected void writeFiles(Collection<FileTask> tasks, OutputSink sink) throws IOException {
+        // create the directories up front so that concurrent tasks never race to create the same directory
+        Set<String> dirs = new HashSet<>();
+        for (FileTask task : tasks) {
+            String path = task.getPath();
+            int idx = path.lastIndexOf('/');
+            if (idx > 0 && dirs.add(path.substring(0, idx))) {
+                sink.createDirectory(path.substring(0, idx));
             }
-            String text = IOHelpers.readFully(new FileReader(pom));
-            for (Map.Entry<String, String> e : replaceProperties.entrySet()) {
-                text = replaceVariable(text, e.getKey(), e.getValue());
+        }
+
+        if (parallelism <= 1 || tasks.size() <= 1 || !sink.isConcurrent()) {
+            for (FileTask task : tasks) {
+                task.call();
             }
-            // replace name if we have a custom name
-            if (Strings.isNotBlank(name)) {
-                text = text.replaceFirst("<name>(.*)</name>", "<name>" + name + "</name>");
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<Void>> futures = pool.invokeAll(tasks);
+            IOException failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (failure == null) {
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
             }
-            // replace description if we have a custom description
-            if (Strings.isNotBlank(description)) {
-                text = text.replaceFirst("<description>(.*)</description>", "<description>" + description + "</description>");
+            if (failure != null) {
+                throw failure;
             }
-            IOHelpers.writeTo(pom, text);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating " + sink);
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        // now lets create the default directories
-        if (createDefaultDirectories) {
-            File srcDir = new File(outputDir, "src");
-            File mainDir = new File(srcDir, "main");
-            File testDir = new File(srcDir, "test");
+    /**
+     * Copies a compressed binary file; it is inflated on the heap anyway so a direct buffer would only add a copy
+     */
+    protected static void copyBinary(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+    }
 
-            String srcDirName = "java";
+    /**
+     * Writes a single generated file
+     */
+    protected abstract static class FileTask implements Callable<Void> {
+        private final String path;
+        private final OutputSink sink;
 
-            for (File dir : new File[]{mainDir, testDir}) {
-                for (String name : new String[]{srcDirName + "/" + packageDir, "resources"}) {
-                    new File(dir, name).mkdirs();
-                }
+        public FileTask(String path, OutputSink sink) {
+            this.path = path;
+            this.sink = sink;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try (OutputStream out = sink.openFile(path)) {
+                write(out);
             }
+            return null;
         }
 
-        return 0;
+        protected abstract void write(OutputStream out) throws IOException;
     }
 
     /**
-     * Searches ZIP archive and returns properties found in "META-INF/maven/archetype-metadata.xml" entry
+     * Returns the compiled archetype from the template cache, compiling and caching it if need be
      */
-    public Map<String, String> parseProperties() throws IOException {
-        final Map<String, String> replaceProperties = new HashMap<String, String>();
-        ZipFile zip = null;
-        try {
-            zip = new ZipFile(archetypeFile);
-            ZipEntry entry = zip.getEntry("META-INF/maven/archetype-metadata.xml");
-            if (entry != null) {
-                try (InputStream inputStream = zip.getInputStream(entry)) {
-                    parseReplaceProperties(inputStream, replaceProperties);
+    protected ArchetypeTemplate loadTemplate() throws IOException {
+        ArchetypeTemplate template = templateCache.get(archetypeFile);
+        if (template == null) {
+            debug("Compiling archetype " + archetypeFile);
+            template = compileTemplate();
+            templateCache.put(archetypeFile, template);
+        }
+        return template;
+    }
+
+    /**
+     * Reads the archetype jar into a template which can be used to generate projects without reading the jar again
+     */
+    public ArchetypeTemplate compileTemplate() throws IOException {
+        ArchetypeDescriptor descriptor;
+        List<ArchetypeTemplate.Entry> templateEntries = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(archetypeFile)) {
+            descriptor = ArchetypeDescriptor.load(archetypeFile, zip);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String fullName = entry.getName();
+                if (entry.isDirectory() || fullName == null || !fullName.startsWith(zipEntryPrefix)) {
+                    continue;
+                }
+                String name = fullName.substring(zipEntryPrefix.length());
+                // paths with properties can only be resolved once we know the values of the properties
+                ArchetypeTemplate.PathTemplate path = name.contains("__") ? null : compilePath(name);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    if (isBinary(name)) {
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        IOHelpers.copy(in, bos);
+                        templateEntries.add(new ArchetypeTemplate.Entry(name, path, bos.toByteArray()));
+                    } else {
+                        StringWriter writer = new StringWriter();
+                        transformContents(new InputStreamReader(in, StandardCharsets.UTF_8), writer, new VariableReplacer());
+                        templateEntries.add(new ArchetypeTemplate.Entry(name, path, compileText(writer.toString())));
+                    }
                 }
             }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
             throw new IOException(e.getMessage(), e);
-        } finally {
-            if (zip != null) {
-                zip.close();
-            }
         }
-        return replaceProperties;
+        return new ArchetypeTemplate(descriptor, templateEntries);
     }
 
     /**
-     * Extracts properties declared in "META-INF/maven/archetype-metadata.xml" file
+     * Splits text, whose Velocity macros have already been processed, into literal segments and variable slots
+     */
+    protected List<ArchetypeTemplate.Segment> compileText(String text) {
+        List<ArchetypeTemplate.Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        String separator = System.lineSeparator();
+        int start = 0;
+        int end;
+        // variables never span lines
+        while ((end = text.indexOf(separator, start)) >= 0) {
+            ArchetypeTemplate.compileLine(text.substring(start, end), segments, literal);
+            literal.append(separator);
+            start = end + separator.length();
+        }
+        ArchetypeTemplate.compileLine(text.substring(start), segments, literal);
+        ArchetypeTemplate.flushLiteral(segments, literal);
+        return segments;
+    }
+
+    /**
+     * Returns the path of the generated file for the given archetype resource
+     */
+    protected String outputPath(String name, String packageDir) {
+        return compilePath(name).resolve(packageDir);
+    }
+
+    /**
+     * Works out where the package directory goes in the path of the generated file for the given archetype resource
      */
-    protected void parseReplaceProperties(InputStream zip, Map<String, String> replaceProperties) throws IOException, ParserConfigurationException, SAXException, XPathExpressionException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        IOHelpers.copy(zip, bos);
+    protected ArchetypeTemplate.PathTemplate compilePath(String name) {
+        int idx = name.lastIndexOf('/');
+        Matcher matcher = sourcePathRegexPattern.matcher(name);
+        if (idx > 0 && matcher.matches()) {
+            String prefix = matcher.group(1);
+            return new ArchetypeTemplate.PathTemplate(name, prefix, "/" + name.substring(prefix.length()));
+        } else if (name.startsWith(webInfResources)) {
+            return new ArchetypeTemplate.PathTemplate(name, "src/main/webapp/WEB-INF/", "/resources" + name.substring(webInfResources.length()));
+        } else {
+            return new ArchetypeTemplate.PathTemplate(name, null, null);
+        }
+    }
 
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(true);
-        DocumentBuilder db = dbf.newDocumentBuilder();
+    protected boolean isBinary(String name) {
+        for (String suffix : binarySuffixes) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        InputSource inputSource = new InputSource(new ByteArrayInputStream(bos.toByteArray()));
-        Document document = db.parse(inputSource);
+    /**
+     * Returns the parsed descriptor of the archetype jar, which is cached for as long as the jar is not modified
+     */
+    public ArchetypeDescriptor getDescriptor() throws IOException {
+        return ArchetypeDescriptor.load(archetypeFile);
+    }
 
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        SimpleNamespaceContext nsContext = new SimpleNamespaceContext();
-        nsContext.registerMapping("ad", archetypeDescriptorUri);
-        xpath.setNamespaceContext(nsContext);
+    /**
+     * Searches ZIP archive and returns properties found in "META-INF/maven/archetype-metadata.xml" entry
+     */
+    public Map<String, String> parseProperties() throws IOException {
+        return new HashMap<String, String>(getDescriptor().getProperties());
+    }
 
-        NodeList properties = (NodeList) xpath.evaluate(requiredPropertyXPath, document, XPathConstants.NODESET);
+    /**
+     * Extracts properties declared in "META-INF/maven/archetype-metadata.xml" file
+     */
+    protected void parseReplaceProperties(InputStream zip, Map<String, String> replaceProperties) throws IOException {
+        ArchetypeDescriptor.parseProperties(zip, replaceProperties);
+    }
 
-        for (int p = 0; p < properties.getLength(); p++) {
-            Element requiredProperty = (Element) properties.item(p);
+    protected String transformContents(String fileContents, Map<String, String> replaceProperties) {
+        VariableReplacer variableReplacer = replacer != null ? replacer : createReplacer(replaceProperties);
+        StringWriter writer = new StringWriter(fileContents.length() + 16);
+        try {
+            transformContents(new StringReader(fileContents), writer, variableReplacer);
+        } catch (IOException e) {
+            // cannot happen with in memory readers and writers
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        return writer.toString();
+    }
 
-            String key = requiredProperty.getAttribute("key");
-            NodeList children = requiredProperty.getElementsByTagNameNS(archetypeDescriptorUri, "defaultValue");
-            String value = "";
-            if (children.getLength() == 1 && children.item(0).hasChildNodes()) {
-                value = children.item(0).getTextContent();
-            } else {
-                if ("name".equals(key) && value.isEmpty()) {
-                    value = "HelloWorld";
+    /**
+     * Transforms the text from the reader line by line into the writer so that only a single line
+     * of the file is held in memory at a time, whatever the size of the file.
+     * <p/>
+     * The lines are written with the platform line separator and trailing blank lines are removed.
+     */
+    protected void transformContents(Reader reader, Writer writer, VariableReplacer variableReplacer) throws IOException {
+        char[] buffer = new char[8192];
+        StringBuilder line = new StringBuilder();
+        StringBuilder output = new StringBuilder();
+        boolean empty = true;
+        int blankLines = 0;
+        int count;
+        while ((count = reader.read(buffer)) >= 0) {
+            if (count > 0) {
+                empty = false;
+            }
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] == '\n') {
+                    line.append(buffer, start, i - start);
+                    start = i + 1;
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(--length);
+                    }
+                    if (length == 0) {
+                        // blank lines are only written once we know they are not at the end of the file
+                        blankLines++;
+                    } else {
+                        writeBlankLines(writer, blankLines);
+                        blankLines = 0;
+                        transformLine(line.toString(), writer, variableReplacer, output);
+                    }
+                    line.setLength(0);
                 }
             }
-            replaceProperties.put(key, value);
+            // carry the rest of the buffer over to the next read
+            line.append(buffer, start, count - start);
+        }
+        if (line.length() > 0) {
+            writeBlankLines(writer, blankLines);
+            transformLine(line.toString(), writer, variableReplacer, output);
+        } else if (empty) {
+            writer.write(System.lineSeparator());
         }
     }
 
-    protected String transformContents(String fileContents, Map<String, String> replaceProperties) {
-        String answer = removeInvalidHeaderCommentsAndProcessVelocityMacros(fileContents);
-        answer = replaceVariable(answer, "package", packageName);
-        answer = replaceVariable(answer, "packageName", packageName);
-        answer = replaceAllVariable(answer, "groupId", groupId);
-        answer = replaceAllVariable(answer, "artifactId", artifactId);
-        answer = replaceAllVariable(answer, "version", version);
-        for (Map.Entry<String, String> e : replaceProperties.entrySet()) {
-            answer = replaceVariable(answer, e.getKey(), e.getValue());
+    private void writeBlankLines(Writer writer, int blankLines) throws IOException {
+        for (int i = 0; i < blankLines; i++) {
+            writer.write(System.lineSeparator());
         }
-        return answer;
     }
 
     /**
-     * This method should do a full Velocity macro processing...
+     * Writes the transformed line unless it is a Velocity comment or directive
      */
-    protected String removeInvalidHeaderCommentsAndProcessVelocityMacros(String text) {
-        String answer = "";
-        String[] lines = text.split("\r?\n");
-        for (String line : lines) {
-            String l = line.trim();
-            // a bit of Velocity here
-            if (!l.startsWith("##") && !l.startsWith("#set(")) {
-                if (line.contains("${D}")) {
-                    line = line.replaceAll("\\$\\{D\\}", "\\$");
-                }
-                answer = answer.concat(line);
-                answer = answer.concat(System.lineSeparator());
+    protected void transformLine(String line, Writer writer, VariableReplacer variableReplacer, StringBuilder output) throws IOException {
+        String l = line.trim();
+        // a bit of Velocity here
+        if (!l.startsWith("##") && !l.startsWith("#set(")) {
+            if (line.contains("${D}")) {
+                line = line.replace("${D}", "$");
             }
+            output.setLength(0);
+            variableReplacer.replace(line, output);
+            output.append(System.lineSeparator());
+            writer.append(output);
         }
+    }
+
+    /**
+     * Compiles the variables used to transform the contents of the archetype files, so that each file is
+     * transformed in a single pass rather than once per variable
+     */
+    protected VariableReplacer createReplacer(Map<String, String> replaceProperties) {
+        VariableReplacer answer = new VariableReplacer();
+        addVariable(answer, "package", packageName);
+        addVariable(answer, "packageName", packageName);
+        answer.addBareVariable("groupId", groupId);
+        answer.addBareVariable("artifactId", artifactId);
+        answer.addBareVariable("version", version);
+        addVariables(answer, replaceProperties);
         return answer;
     }
 
-    protected String replaceFileProperties(String fileName, Map<String, String> replaceProperties) {
-        String answer = fileName;
+    protected void addVariables(VariableReplacer replacer, Map<String, String> replaceProperties) {
         for (Map.Entry<String, String> e : replaceProperties.entrySet()) {
-            answer = answer.replace("__" + e.getKey() + "__", e.getValue());
+            addVariable(replacer, e.getKey(), e.getValue());
         }
-        return answer;
     }
 
-    protected String replaceVariable(String text, String name, String value) {
-        if (value.contains("}")) {
+    protected void addVariable(VariableReplacer replacer, String name, String value) {
+        if (value != null && value.contains("}")) {
             debug("Ignoring unknown value '" + value + "'");
-            return text;
         } else {
-            return text.replaceAll(Pattern.quote("${" + name + "}"), value);
+            replacer.addVariable(name, value);
+        }
+    }
+
+    /**
+     * This method should do a full Velocity macro processing...
+     */
+    protected String removeInvalidHeaderCommentsAndProcessVelocityMacros(String text) {
+        StringWriter writer = new StringWriter(text.length() + 16);
+        try {
+            transformContents(new StringReader(text), writer, new VariableReplacer());
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
         }
+        return writer.toString();
     }
 
-    protected String replaceAllVariable(String text, String name, String value) {
-        String answer;
-        answer = text.replaceAll(Pattern.quote("${" + name + "}"), value);
-        answer = answer.replaceAll(Pattern.quote("$" + name), value);
+    protected String replaceFileProperties(String fileName, Map<String, String> replaceProperties) {
+        String answer = fileName;
+        for (Map.Entry<String, String> e : replaceProperties.entrySet()) {
+            answer = answer.replace("__" + e.getKey() + "__", e.getValue());
+        }
         return answer;
     }
 
@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The files and directories a project would be generated with, as returned by {@link ArchetypeHelper#plan()}
+ * without writing anything.
+ */
+public class ArchetypePlan {
+
+    private final String packageDir;
+    private final Map<String, String> properties;
+    private final List<PlannedFile> files;
+    private final List<String> directories;
+
+    public ArchetypePlan(String packageDir, Map<String, String> properties, List<PlannedFile> files, List<String> directories) {
+        this.packageDir = packageDir;
+        this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.directories = Collections.unmodifiableList(new ArrayList<>(directories));
+    }
+
+    /**
+     * Returns the directory of the package, such as <code>org/example/hello</code>
+     */
+    public String getPackageDir() {
+        return packageDir;
+    }
+
+    /**
+     * Returns the values of the properties used to generate the project
+     */
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the files of the project in the order they would be written
+     */
+    public List<PlannedFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the file with the given path relative to the project or null if there is no such file
+     */
+    public PlannedFile getFile(String path) {
+        for (PlannedFile file : files) {
+            if (file.getPath().equals(path)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the default source directories which would be created
+     */
+    public List<String> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * Returns the sum of the sizes of the archetype resources
+     */
+    public long getSize() {
+        long answer = 0;
+        for (PlannedFile file : files) {
+            if (file.getSize() > 0) {
+                answer += file.getSize();
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the placeholders which would be left as is in any of the files, such as <code>${unknown}</code>
+     */
+    public Set<String> getUnresolved() {
+        Set<String> answer = new LinkedHashSet<>();
+        for (PlannedFile file : files) {
+            answer.addAll(file.getUnresolved());
+        }
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchetypePlan(" + files.size() + " files, " + getSize() + " bytes, package: " + packageDir + ")";
+    }
+
+    /**
+     * A file which would be generated
+     */
+    public static class PlannedFile {
+        private final String resourceName;
+        private final String path;
+        private final long size;
+        private final boolean binary;
+        private final Set<String> properties;
+        private final Set<String> unresolved;
+
+        public PlannedFile(String resourceName, String path, long size, boolean binary, Set<String> properties, Set<String> unresolved) {
+            this.resourceName = resourceName;
+            this.path = path;
+            this.size = size;
+            this.binary = binary;
+            this.properties = Collections.unmodifiableSet(new LinkedHashSet<>(properties));
+            this.unresolved = Collections.unmodifiableSet(new LinkedHashSet<>(unresolved));
+        }
+
+        /**
+         * Returns the path of the resource relative to <code>archetype-resources/</code>
+         */
+        public String getResourceName() {
+            return resourceName;
+        }
+
+        /**
+         * Returns the path of the generated file relative to the project
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the uncompressed size of the archetype resource or -1 if it is not known
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        /**
+         * Returns the names of the variables used in the path and contents of the file
+         */
+        public Set<String> getProperties() {
+            return properties;
+        }
+
+        /**
+         * Returns the placeholders without a value, such as <code>${unknown}</code> or <code>__unknown__</code>,
+         * which would be left as is; placeholders escaped as <code>${D}{name}</code> and the maven properties
+         * in poms are meant to be left as is so they are not included
+         */
+        public Set<String> getUnresolved() {
+            return unresolved;
+        }
+
+        @Override
+        public String toString() {
+            return path + (binary ? " (binary, " : " (") + size + " bytes)";
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiled form of an archetype jar which can be used to generate many projects without reading the jar again.
+ * <p/>
+ * The Velocity comments and directives of the text files have already been processed and the remaining text is
+ * split into literal segments and variable slots, so that generating a project only needs to look up the
+ * variables and write the files.
+ */
+public class ArchetypeTemplate {
+
+    private final ArchetypeDescriptor descriptor;
+    private final List<Entry> entries;
+    private final long size;
+
+    public ArchetypeTemplate(ArchetypeDescriptor descriptor, List<Entry> entries) {
+        this.descriptor = descriptor;
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.getSize();
+        }
+        this.size = total;
+    }
+
+    /**
+     * Returns the default values of the required properties declared in the archetype descriptor
+     */
+    public Map<String, String> getProperties() {
+        return descriptor.getProperties();
+    }
+
+    public ArchetypeDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the approximate number of bytes of memory used by this template
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchetypeTemplate(" + entries.size() + " entries, " + size + " bytes)";
+    }
+
+    /**
+     * Splits a line of transformed text into literal segments and variable slots using the same rules
+     * as {@link VariableReplacer}, appending them to the given list of segments.
+     */
+    public static void compileLine(String line, List<Segment> segments, StringBuilder literal) {
+        int length = line.length();
+        int last = 0;
+        int idx = line.indexOf('$');
+        while (idx >= 0 && idx < length - 1) {
+            int next = idx + 1;
+            int end = -1;
+            boolean bare = false;
+            if (line.charAt(next) == '{') {
+                int close = line.indexOf('}', next + 1);
+                if (close > 0) {
+                    end = close + 1;
+                }
+            } else {
+                int close = next;
+                while (close < length && VariableReplacer.isNameChar(line.charAt(close))) {
+                    close++;
+                }
+                if (close > next) {
+                    end = close;
+                    bare = true;
+                }
+            }
+            if (end > 0) {
+                literal.append(line, last, idx);
+                flushLiteral(segments, literal);
+                String token = line.substring(idx, end);
+                String name = bare ? token.substring(1) : token.substring(2, token.length() - 1);
+                segments.add(new Segment(token, name, bare));
+                last = end;
+                next = end;
+            }
+            idx = line.indexOf('$', next);
+        }
+        literal.append(line, last, length);
+    }
+
+    public static void flushLiteral(List<Segment> segments, StringBuilder literal) {
+        if (literal.length() > 0) {
+            segments.add(new Segment(literal.toString(), null, false));
+            literal.setLength(0);
+        }
+    }
+
+    /**
+     * A literal piece of text or a variable slot of a text file
+     */
+    public static class Segment {
+        private final String text;
+        private final String name;
+        private final boolean bare;
+
+        public Segment(String text, String name, boolean bare) {
+            this.text = text;
+            this.name = name;
+            this.bare = bare;
+        }
+
+        /**
+         * Returns the literal text or the variable token, such as <code>${name}</code>, of a slot
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Returns the name of the variable or null if this is a literal segment
+         */
+        public String getName() {
+            return name;
+        }
+
+        public boolean isBare() {
+            return bare;
+        }
+
+        public void writeTo(Writer writer, VariableReplacer replacer) throws IOException {
+            if (name == null) {
+                writer.write(text);
+                return;
+            }
+            String value = bare ? replacer.getBareValue(name) : replacer.getValue(name);
+            if (value != null) {
+                writer.write(value);
+            } else if (bare) {
+                writer.write(text);
+            } else {
+                // the token may still contain variables, such as ${a$version}
+                writer.write(replacer.replace(text));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name == null ? "Literal(" + text + ")" : "Slot(" + text + ")";
+        }
+    }
+
+    /**
+     * A file of the archetype
+     */
+    public static class Entry {
+        private final String name;
+        private final PathTemplate path;
+        private final byte[] data;
+        private final Segment[] segments;
+
+        /**
+         * Creates a binary entry which is copied as is
+         */
+        public Entry(String name, PathTemplate path, byte[] data) {
+            this.name = name;
+            this.path = path;
+            this.data = data;
+            this.segments = null;
+        }
+
+        /**
+         * Creates a text entry whose variables are replaced
+         */
+        public Entry(String name, PathTemplate path, List<Segment> segments) {
+            this.name = name;
+            this.path = path;
+            this.data = null;
+            this.segments = segments.toArray(new Segment[segments.size()]);
+        }
+
+        /**
+         * Returns the path of the entry relative to the archetype resources, which may contain <code>__property__</code> markers
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the precomputed output path or null if the path contains properties which must be replaced first
+         */
+        public PathTemplate getPath() {
+            return path;
+        }
+
+        public boolean isBinary() {
+            return data != null;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(data);
+        }
+
+        public void writeTo(Writer writer, VariableReplacer replacer) throws IOException {
+            for (Segment segment : segments) {
+                segment.writeTo(writer, replacer);
+            }
+        }
+
+        protected long getSize() {
+            long answer = 64 + name.length() * 2;
+            if (data != null) {
+                answer += data.length;
+            } else {
+                for (Segment segment : segments) {
+                    answer += 48 + segment.getText().length() * 2;
+                }
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * The output path of an entry, with an optional slot for the package directory
+     */
+    public static class PathTemplate {
+        private final String path;
+        private final String prefix;
+        private final String suffix;
+
+        /**
+         * @param path   the path used when there is no package
+         * @param prefix the path before the package directory or null if the path does not include the package directory
+         * @param suffix the path after the package directory
+         */
+        public PathTemplate(String path, String prefix, String suffix) {
+            this.path = path;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        public String resolve(String packageDir) {
+            if (prefix == null || packageDir.length() == 0) {
+                return path;
+            }
+            return prefix + packageDir + suffix;
+        }
+
+        @Override
+        public String toString() {
+            return prefix == null ? path : prefix + "{package}" + suffix;
+        }
+    }
+}
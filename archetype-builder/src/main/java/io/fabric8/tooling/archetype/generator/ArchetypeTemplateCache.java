@@ -0,0 +1,132 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An in memory cache of compiled {@link ArchetypeTemplate}s keyed by the path, size and last modified time of the
+ * archetype jar, so that a jar which is replaced is compiled again.
+ * <p/>
+ * The least recently used templates are evicted once the templates use more than the maximum number of bytes.
+ */
+public class ArchetypeTemplateCache {
+
+    public static final String MAX_SIZE_PROPERTY = "archetype.templateCache.maxSize";
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private static ArchetypeTemplateCache sharedCache;
+
+    private final long maxSize;
+    private final LinkedHashMap<String, CachedTemplate> templates = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public ArchetypeTemplateCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cache shared by the whole JVM whose maximum size in bytes can be configured using the
+     * {@link #MAX_SIZE_PROPERTY} system property
+     */
+    public static synchronized ArchetypeTemplateCache getSharedCache() {
+        if (sharedCache == null) {
+            sharedCache = new ArchetypeTemplateCache(Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+        }
+        return sharedCache;
+    }
+
+    /**
+     * Returns the cached template of the given archetype jar or null if it has not been cached or the jar has changed
+     */
+    public synchronized ArchetypeTemplate get(File archetypeFile) throws IOException {
+        String key = archetypeFile.getCanonicalPath();
+        CachedTemplate cached = templates.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.length != archetypeFile.length() || cached.lastModified != archetypeFile.lastModified()) {
+            remove(key);
+            return null;
+        }
+        return cached.template;
+    }
+
+    /**
+     * Caches the template of the given archetype jar unless it is larger than the cache
+     */
+    public synchronized void put(File archetypeFile, ArchetypeTemplate template) throws IOException {
+        String key = archetypeFile.getCanonicalPath();
+        remove(key);
+        if (template.getSize() > maxSize) {
+            return;
+        }
+        templates.put(key, new CachedTemplate(template, archetypeFile.length(), archetypeFile.lastModified()));
+        size += template.getSize();
+        Iterator<CachedTemplate> iter = templates.values().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            size -= iter.next().template.getSize();
+            iter.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        templates.clear();
+        size = 0;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the cached templates
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return templates.size();
+    }
+
+    protected void remove(String key) {
+        CachedTemplate old = templates.remove(key);
+        if (old != null) {
+            size -= old.template.getSize();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ArchetypeTemplateCache(" + templates.size() + " templates, " + size + "/" + maxSize + " bytes)";
+    }
+
+    private static class CachedTemplate {
+        private final ArchetypeTemplate template;
+        private final long length;
+        private final long lastModified;
+
+        CachedTemplate(ArchetypeTemplate template, long length, long lastModified) {
+            this.template = template;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
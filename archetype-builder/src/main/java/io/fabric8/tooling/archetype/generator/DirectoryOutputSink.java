@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the files of a generated project into a directory
+ */
+public class DirectoryOutputSink implements OutputSink {
+
+    private final File dir;
+
+    public DirectoryOutputSink(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Returns a {@link FileOutputStream} so that callers can write to its channel; the parent directory must already exist
+     */
+    @Override
+    public OutputStream openFile(String path) throws IOException {
+        return new FileOutputStream(new File(dir, path));
+    }
+
+    @Override
+    public void createDirectory(String path) throws IOException {
+        new File(dir, path).mkdirs();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return dir.getPath();
+    }
+}
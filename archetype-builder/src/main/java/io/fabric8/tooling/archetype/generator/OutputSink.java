@@ -0,0 +1,42 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where the files of a generated project are written, such as a directory or a zip stream.
+ * <p/>
+ * Paths are relative to the root of the project and use <code>/</code> as the separator.
+ */
+public interface OutputSink {
+
+    /**
+     * Returns a stream to write the file with the given path to, which the caller must close
+     */
+    OutputStream openFile(String path) throws IOException;
+
+    /**
+     * Creates the directory with the given path, including any parent directories
+     */
+    void createDirectory(String path) throws IOException;
+
+    /**
+     * Returns true if files may be written from several threads at the same time
+     */
+    boolean isConcurrent();
+}
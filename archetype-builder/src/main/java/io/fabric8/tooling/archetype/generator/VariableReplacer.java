@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces <code>${name}</code> and <code>$name</code> variables in text in a single pass.
+ * <p/>
+ * The variables are registered once up front and then each text is scanned once for <code>$</code> characters;
+ * the name following each one is looked up in a hash map so the cost of a replacement is linear in the size of
+ * the text, regardless of how many variables there are.
+ * <p/>
+ * A <code>$name</code> variable only matches a whole name, so <code>$versionNumber</code> is not replaced by the
+ * <code>version</code> variable. If a variable is registered more than once the first registration wins.
+ */
+public class VariableReplacer {
+
+    private final Map<String, String> bracedVariables = new HashMap<>();
+    private final Map<String, String> bareVariables = new HashMap<>();
+    private int maxNameLength;
+
+    /**
+     * Registers a variable which is replaced when used as <code>${name}</code>
+     */
+    public VariableReplacer addVariable(String name, String value) {
+        if (name != null && value != null && !bracedVariables.containsKey(name)) {
+            bracedVariables.put(name, value);
+            maxNameLength = Math.max(maxNameLength, name.length());
+        }
+        return this;
+    }
+
+    /**
+     * Registers a variable which is replaced when used as either <code>${name}</code> or <code>$name</code>
+     */
+    public VariableReplacer addBareVariable(String name, String value) {
+        if (name != null && value != null && !bareVariables.containsKey(name)) {
+            bareVariables.put(name, value);
+        }
+        return addVariable(name, value);
+    }
+
+    /**
+     * Returns the value of the variable with the given name or null if there is no such variable
+     */
+    public String getValue(String name) {
+        return bracedVariables.get(name);
+    }
+
+    /**
+     * Returns the value of the variable which may be used as <code>$name</code> or null if there is no such variable
+     */
+    public String getBareValue(String name) {
+        return bareVariables.get(name);
+    }
+
+    public boolean isEmpty() {
+        return bracedVariables.isEmpty();
+    }
+
+    /**
+     * Returns the text with all the variables replaced
+     */
+    public String replace(String text) {
+        if (text.indexOf('$') < 0 || isEmpty()) {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder(text.length() + 16);
+        replace(text, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the text to the builder with all the variables replaced
+     */
+    public void replace(String text, StringBuilder builder) {
+        int length = text.length();
+        int last = 0;
+        int idx = text.indexOf('$');
+        while (idx >= 0 && idx < length - 1) {
+            int next = idx + 1;
+            String value = null;
+            if (text.charAt(next) == '{') {
+                int end = text.indexOf('}', next + 1);
+                if (end > 0 && end - next - 1 <= maxNameLength) {
+                    value = bracedVariables.get(text.substring(next + 1, end));
+                    if (value != null) {
+                        next = end + 1;
+                    }
+                }
+            } else if (!bareVariables.isEmpty()) {
+                int end = next;
+                while (end < length && isNameChar(text.charAt(end))) {
+                    end++;
+                }
+                if (end > next) {
+                    value = bareVariables.get(text.substring(next, end));
+                    if (value != null) {
+                        next = end;
+                    }
+                }
+            }
+            if (value != null) {
+                builder.append(text, last, idx).append(value);
+                last = next;
+            }
+            idx = text.indexOf('$', next);
+        }
+        builder.append(text, last, length);
+    }
+
+    protected static boolean isNameChar(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_';
+    }
+
+    @Override
+    public String toString() {
+        return "VariableReplacer" + bracedVariables;
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory at the end of a zip file, which gives the position of the data of each entry
+ * in the file, so that stored entries can be copied straight from the zip file without being decompressed and
+ * single small entries can be read without opening the whole zip file.
+ * <p/>
+ * Only zip files without the zip64 extensions are supported; reading a zip64 file fails with a {@link ZipException}.
+ */
+public class ZipCentralDirectory {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private final Map<String, Entry> entries;
+
+    protected ZipCentralDirectory(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Reads the central directory of the zip file open on the given channel
+     */
+    public static ZipCentralDirectory read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("Could not find the end of the central directory");
+        }
+        int count = tail.getShort(end + 10) & 0xffff;
+        long size = tail.getInt(end + 12) & 0xffffffffL;
+        long offset = tail.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL) {
+            throw new ZipException("zip64 files are not supported");
+        }
+        if (offset + size > fileSize || size > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory offset " + offset + " and size " + size);
+        }
+
+        ByteBuffer directory = readFully(channel, offset, (int) size);
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_SIZE > size || directory.getInt(pos) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry at " + (offset + pos));
+            }
+            int flags = directory.getShort(pos + 8) & 0xffff;
+            int method = directory.getShort(pos + 10) & 0xffff;
+            long crc = directory.getInt(pos + 16) & 0xffffffffL;
+            long compressedSize = directory.getInt(pos + 20) & 0xffffffffL;
+            long uncompressedSize = directory.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = directory.getShort(pos + 28) & 0xffff;
+            int extraLength = directory.getShort(pos + 30) & 0xffff;
+            int commentLength = directory.getShort(pos + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(pos + 42) & 0xffffffffL;
+            if ((long) pos + CENTRAL_SIZE + nameLength + extraLength + commentLength > size) {
+                throw new ZipException("Central directory entry at " + (offset + pos) + " is longer than the central directory");
+            }
+            byte[] nameBytes = new byte[nameLength];
+            directory.position(pos + CENTRAL_SIZE);
+            directory.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            entries.put(name, new Entry(name, method, flags, crc, compressedSize, uncompressedSize, localHeaderOffset));
+            pos += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new ZipCentralDirectory(entries);
+    }
+
+    /**
+     * Returns the entry with the given name or null if there is no such entry
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns the entries in the order of the central directory
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Returns the position in the zip file of the (possibly compressed) data of the given entry
+     */
+    public static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer header = readFully(channel, entry.getLocalHeaderOffset(), LOCAL_SIZE);
+        if (header.getInt(0) != LOCAL_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.getName());
+        }
+        int nameLength = header.getShort(26) & 0xffff;
+        int extraLength = header.getShort(28) & 0xffff;
+        return entry.getLocalHeaderOffset() + LOCAL_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Copies a stored entry from the zip file to the target channel without passing the data through the heap
+     */
+    public static void transferStored(FileChannel channel, Entry entry, FileChannel target) throws IOException {
+        if (!entry.isStored()) {
+            throw new ZipException("Entry " + entry.getName() + " is compressed");
+        }
+        long position = getDataOffset(channel, entry);
+        long remaining = entry.getSize();
+        while (remaining > 0) {
+            long count = channel.transferTo(position, remaining, target);
+            if (count <= 0) {
+                throw new EOFException("Unexpected end of zip file in " + entry.getName());
+            }
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Reads the uncompressed contents of an entry, which should be small enough to be held in memory, such as
+     * a descriptor; without reading any other part of the zip file
+     */
+    public static byte[] readEntry(FileChannel channel, Entry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE || entry.getCompressedSize() > Integer.MAX_VALUE) {
+            throw new ZipException("Entry " + entry.getName() + " is too large to read into memory");
+        }
+        ByteBuffer data = readFully(channel, getDataOffset(channel, entry), (int) entry.getCompressedSize());
+        if (entry.isStored()) {
+            return data.array();
+        }
+        if (entry.getMethod() != ZipEntry.DEFLATED || (entry.flags & 1) != 0) {
+            throw new ZipException("Entry " + entry.getName() + " uses an unsupported compression method " + entry.getMethod());
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data.array());
+            byte[] answer = new byte[(int) entry.getSize()];
+            int count = 0;
+            while (count < answer.length) {
+                int inflated = inflater.inflate(answer, count, answer.length - count);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+            if (count != answer.length) {
+                throw new ZipException("Entry " + entry.getName() + " inflated to " + count + " bytes rather than " + answer.length);
+            }
+            return answer;
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed data for " + entry.getName() + " due: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    protected static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of zip file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * An entry of the central directory
+     */
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final int flags;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        public Entry(String name, int method, int flags, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * Returns true if the data of the entry is stored uncompressed and unencrypted in the zip file
+         */
+        public boolean isStored() {
+            return method == ZipEntry.STORED && (flags & 1) == 0 && compressedSize == size;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry(" + name + " method: " + method + " size: " + size + ")";
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the files of a generated project as the entries of a zip stream, such as the response of a download
+ * request, without any temporary files.
+ * <p/>
+ * Entries are written one at a time so the files of the project are never written concurrently.
+ */
+public class ZipOutputSink implements OutputSink, Closeable {
+
+    private final ZipOutputStream zip;
+    private final String prefix;
+    private final Set<String> directories = new HashSet<>();
+
+    /**
+     * Writes the project into the given zip stream, with each entry name starting with the given prefix
+     * which is typically blank or the name of the project followed by <code>/</code>
+     */
+    public ZipOutputSink(ZipOutputStream zip, String prefix) {
+        this.zip = zip;
+        this.prefix = prefix != null ? prefix : "";
+    }
+
+    /**
+     * Writes the project as a new zip file to the given stream
+     */
+    public ZipOutputSink(OutputStream out, String prefix) {
+        this(new ZipOutputStream(out), prefix);
+    }
+
+    public ZipOutputStream getZip() {
+        return zip;
+    }
+
+    @Override
+    public synchronized OutputStream openFile(String path) throws IOException {
+        zip.putNextEntry(new ZipEntry(prefix + path));
+        // closing the stream just ends the entry
+        return new FilterOutputStream(zip) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                zip.closeEntry();
+            }
+        };
+    }
+
+    @Override
+    public synchronized void createDirectory(String path) throws IOException {
+        String name = prefix + (path.endsWith("/") ? path : path + "/");
+        if (directories.add(name)) {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.closeEntry();
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Finishes the zip stream without closing the underlying stream
+     */
+    public void finish() throws IOException {
+        zip.finish();
+    }
+
+    /**
+     * Finishes and closes the zip stream
+     */
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
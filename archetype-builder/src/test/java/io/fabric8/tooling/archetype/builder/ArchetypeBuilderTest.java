@@ -25,6 +25,7 @@ import java.util.List;
 
 import io.fabric8.tooling.archetype.ArchetypeUtils;
 import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -81,6 +82,7 @@ public class ArchetypeBuilderTest {
             "/pom.xml",
             "/.gitignore",
             "/src",
+            "/src/.archetype-manifest.properties",
             "/src/main",
             "/src/main/resources",
             "/src/main/resources/archetype-resources",
@@ -109,6 +111,33 @@ public class ArchetypeBuilderTest {
         assertTrue("Failed to create correct Archetype project", files.isEmpty());
     }
 
+    @Test
+    public void unchangedArchetypesAreNotRegenerated() throws Exception {
+        File projectDir = new File(basedir, "target/test-incremental/hello-world-example").getCanonicalFile();
+        File outputDir = new File(basedir, "target/test-incremental/archetypes").getCanonicalFile();
+        Files.recursiveDelete(projectDir.getParentFile());
+        Files.copy(new File(basedir, "src/test/examples/hello-world-example"), projectDir);
+        File archetypeDir = new File(outputDir, "hello-world-archetype");
+        File resourcesDir = new File(archetypeDir, ArchetypeBuilder.ARCHETYPE_RESOURCES_PATH);
+
+        List<String> dirs = new ArrayList<String>();
+        archetypeBuilder.generateArchetype(projectDir, new File(projectDir, "pom.xml"), archetypeDir, false, dirs);
+        assertTrue(new File(archetypeDir, ArchetypeBuilder.ARCHETYPE_MANIFEST).isFile());
+
+        // a marker file would be removed if the archetype was generated again
+        File marker = new File(resourcesDir, "marker.txt");
+        IOHelpers.writeFully(marker, "marker");
+        archetypeBuilder.generateArchetype(projectDir, new File(projectDir, "pom.xml"), archetypeDir, false, dirs);
+        assertTrue("unchanged archetype should not be regenerated", marker.exists());
+        assertEquals(Arrays.asList("hello-world-archetype", "hello-world-archetype"), dirs);
+
+        // after changing the source the archetype should be regenerated
+        IOHelpers.writeFully(new File(projectDir, "ReadMe.txt"), "changed");
+        archetypeBuilder.generateArchetype(projectDir, new File(projectDir, "pom.xml"), archetypeDir, false, dirs);
+        assertFalse("changed archetype should be regenerated", marker.exists());
+        assertEquals("changed", IOHelpers.readFully(new File(resourcesDir, "ReadMe.txt")));
+    }
+
     @Test
     public void relativePaths() throws Exception {
         Arrays.asList(File.listRoots());
@@ -159,4 +188,24 @@ public class ArchetypeBuilderTest {
         assertTrue(archetypeUtils.isValidProjectPom(new File("src/test/resources/example-2/pom.xml")));
         assertFalse(archetypeUtils.isValidProjectPom(new File("src/test/resources/example-3/pom.xml")));
     }
+
+    @Test
+    public void snapshotBuilderVersionIncludesTheBuilderHash() throws Exception {
+        String oldVersion = System.getProperty("project.version");
+        try {
+            System.setProperty("project.version", "2.2.0");
+            assertEquals("2.2.0", archetypeBuilder.builderVersion());
+
+            System.setProperty("project.version", "2.2.0-SNAPSHOT");
+            String version = archetypeBuilder.builderVersion();
+            assertTrue(version, version.matches("2\\.2\\.0-SNAPSHOT\\+[0-9a-f]{40}"));
+            assertEquals(version, new ArchetypeBuilder().builderVersion());
+        } finally {
+            if (oldVersion != null) {
+                System.setProperty("project.version", oldVersion);
+            } else {
+                System.clearProperty("project.version");
+            }
+        }
+    }
 }
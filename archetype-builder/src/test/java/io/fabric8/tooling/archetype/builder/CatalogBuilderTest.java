@@ -0,0 +1,346 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import io.fabric8.tooling.archetype.ArchetypeUtils;
+import io.fabric8.tooling.archetype.generator.ArchetypeHelperTest;
+import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CatalogBuilderTest {
+
+    private String basedir = System.getProperty("basedir", ".");
+
+    @Test
+    public void readPomMetadata() throws Exception {
+        PomMetadata metadata = read("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+                + "  <parent><groupId>io.fabric8.archetypes</groupId><artifactId>archetypes</artifactId><version>2.2.0</version></parent>\n"
+                + "  <artifactId>java-simple-archetype</artifactId>\n"
+                + "  <version>1.0</version>\n"
+                + "  <description><![CDATA[Uses <b>CDATA</b>]]> &amp; entities</description>\n"
+                + "  <dependencies><dependency><groupId>other</groupId></dependency></dependencies>\n"
+                + "</project>\n");
+        assertEquals("io.fabric8.archetypes", metadata.getGroupId());
+        assertEquals("java-simple-archetype", metadata.getArtifactId());
+        assertEquals("1.0", metadata.getVersion());
+        assertEquals("2.2.0", metadata.getArchetypeVersion());
+        assertEquals("Uses <b>CDATA</b> & entities", metadata.getDescription());
+    }
+
+    @Test
+    public void stopReadingOnceTheMetadataIsKnown() throws Exception {
+        // the rest of the pom is never parsed so it does not matter that it is not well formed
+        PomMetadata metadata = read("<project><parent><version>3</version></parent><groupId>g</groupId>"
+                + "<artifactId>a</artifactId><version>1</version><description>d</description><build><</project>");
+        assertEquals("g:a:1:3:d", metadata.getGroupId() + ":" + metadata.getArtifactId() + ":" + metadata.getVersion()
+                + ":" + metadata.getParentVersion() + ":" + metadata.getDescription());
+
+        metadata = read("<project><artifactId>a</artifactId></project>");
+        assertNull(metadata.getGroupId());
+        assertNull(metadata.getParentVersion());
+        assertNull(metadata.getArchetypeVersion());
+    }
+
+    @Test
+    public void writeEscapedCatalog() throws Exception {
+        File testDir = new File(basedir, "target/test-catalog-builder");
+        Files.recursiveDelete(testDir);
+        File pom = new File(testDir, "my-archetype/pom.xml");
+        pom.getParentFile().mkdirs();
+        IOHelpers.writeFully(pom, "<project><groupId>org.example</groupId><version>1.0</version>"
+                + "<description>Tom &amp; Jerry's &lt;app&gt; \"quoted\"</description></project>");
+
+        File catalogFile = new File(testDir, "archetype-catalog.xml");
+        CatalogBuilder builder = new CatalogBuilder(catalogFile);
+        builder.configure();
+        builder.addArchetypeMetaData(pom, "my-archetype");
+        builder.addArchetype("org.example", "control\u0001chars", "1.0", "bad \u0000 char");
+        builder.close();
+
+        Document doc;
+        try (FileInputStream in = new FileInputStream(catalogFile)) {
+            doc = new ArchetypeUtils().parseXml(new InputSource(in));
+        }
+        Element root = doc.getDocumentElement();
+        assertEquals(CatalogBuilder.CATALOG_NAMESPACE, root.getNamespaceURI());
+        NodeList archetypes = root.getElementsByTagName("archetype");
+        assertEquals(2, archetypes.getLength());
+        Element first = (Element) archetypes.item(0);
+        assertEquals("my-archetype", first.getElementsByTagName("artifactId").item(0).getTextContent());
+        assertEquals("1.0", first.getElementsByTagName("version").item(0).getTextContent());
+        assertEquals("Tom & Jerry's <app> \"quoted\"", first.getElementsByTagName("description").item(0).getTextContent());
+        Element second = (Element) archetypes.item(1);
+        assertEquals("controlchars", second.getElementsByTagName("artifactId").item(0).getTextContent());
+        assertEquals("bad  char", second.getElementsByTagName("description").item(0).getTextContent());
+    }
+
+    @Test
+    public void parallelCatalogIsSortedAndIdentical() throws Exception {
+        File testDir = new File(basedir, "target/test-catalog-builder-parallel");
+        Files.recursiveDelete(testDir);
+        List<File> dirs = new ArrayList<>();
+        StringBuilder modules = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String name = "archetype-" + (char) ('a' + (i * 7) % 20);
+            File dir = new File(testDir, "archetypes/" + name);
+            dir.mkdirs();
+            IOHelpers.writeFully(new File(dir, "pom.xml"), "<project><groupId>org.example</groupId><artifactId>" + name
+                    + "</artifactId><version>1.0</version><description>Archetype " + name + "</description></project>");
+            dirs.add(dir);
+            if (i % 5 != 0) {
+                modules.append("<module>").append(name).append("</module>");
+            }
+        }
+        File archetypesPom = new File(testDir, "archetypes/pom.xml");
+        IOHelpers.writeFully(archetypesPom, "<project><modules>" + modules + "</modules></project>");
+
+        String expected = null;
+        for (int parallelism : new int[]{1, 4, 8}) {
+            Collections.shuffle(dirs, new Random(parallelism));
+            File catalogFile = new File(testDir, "catalog-" + parallelism + ".xml");
+            CatalogBuilder builder = new CatalogBuilder(catalogFile);
+            builder.setArchetypesPomFile(archetypesPom);
+            builder.setParallelism(parallelism);
+            builder.configure();
+            builder.addArchetypeMetaData(dirs);
+            builder.close();
+
+            String catalog = IOHelpers.readFully(catalogFile);
+            if (expected == null) {
+                expected = catalog;
+            }
+            assertEquals(expected, catalog);
+            assertEquals("[archetype-a, archetype-f, archetype-k, archetype-p]", builder.getMissingArtifactIds().toString());
+        }
+        assertTrue(expected, expected.indexOf(">archetype-b<") < expected.indexOf(">archetype-c<"));
+        assertTrue(expected, expected.indexOf(">archetype-s<") < expected.indexOf(">archetype-t<"));
+    }
+
+    @Test
+    public void onlyChangedPomsAreReadAgain() throws Exception {
+        File testDir = new File(basedir, "target/test-catalog-builder-cache");
+        Files.recursiveDelete(testDir);
+        List<File> dirs = new ArrayList<>();
+        for (String name : new String[]{"one", "two", "three"}) {
+            File dir = new File(testDir, "archetypes/" + name);
+            dir.mkdirs();
+            IOHelpers.writeFully(new File(dir, "pom.xml"), "<project><groupId>org.example</groupId><artifactId>" + name
+                    + "</artifactId><version>1.0</version></project>");
+            dirs.add(dir);
+        }
+        File bom = new File(testDir, "bom.xml");
+        IOHelpers.writeFully(bom, "<project><properties><camel.version>2.16</camel.version></properties></project>");
+        File cacheFile = new File(testDir, "cache.json");
+
+        CatalogCache cache = buildCatalog(testDir, dirs, bom, cacheFile);
+        assertEquals(3, cache.getMisses());
+        String catalog = IOHelpers.readFully(new File(testDir, "archetype-catalog.xml"));
+
+        cache = buildCatalog(testDir, dirs, bom, cacheFile);
+        assertEquals(3, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertEquals(catalog, IOHelpers.readFully(new File(testDir, "archetype-catalog.xml")));
+        assertEquals(Collections.singletonMap("camel.version", "2.16"), cache.getBomProperties(CatalogCache.hash(
+                java.nio.file.Files.readAllBytes(bom.toPath()))));
+
+        IOHelpers.writeFully(new File(dirs.get(1), "pom.xml"), "<project><groupId>org.example</groupId><artifactId>two</artifactId>"
+                + "<version>2.0</version></project>");
+        dirs.remove(2);
+        cache = buildCatalog(testDir, dirs, bom, cacheFile);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        catalog = IOHelpers.readFully(new File(testDir, "archetype-catalog.xml"));
+        assertTrue(catalog, catalog.contains("<version>2.0</version>"));
+        assertTrue(catalog, !catalog.contains(">three<"));
+
+        // the removed archetype is no longer cached
+        assertTrue(IOHelpers.readFully(cacheFile), !IOHelpers.readFully(cacheFile).contains("three"));
+
+        // building the catalog from a maven repository reads no poms so it keeps the cached entries
+        File repository = new File(testDir, "repository");
+        createJar(new File(repository, "org/example/hello-archetype/1.0/hello-archetype-1.0.jar"), "hello-archetype", "1.0", true);
+        CatalogBuilder builder = new CatalogBuilder(new File(testDir, "repository-catalog.xml"));
+        builder.setCatalogCache(CatalogCache.load(cacheFile));
+        builder.configure();
+        builder.addArchetypesFromRepository(repository);
+        builder.close();
+        cache = buildCatalog(testDir, dirs, bom, cacheFile);
+        assertEquals(2, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void sortVersionsAsMavenDoes() throws Exception {
+        List<CatalogEntry> entries = new ArrayList<>();
+        for (String version : new String[]{"1.10", "1.9", "1.10.1", "1.0-SNAPSHOT", "2.0.redhat-1", "2.0", "1.0-sp1", "1.0.Final",
+                "1.0", "1.0-RC1", "1.9-SNAPSHOT"}) {
+            entries.add(new CatalogEntry("g", "a", version, null));
+        }
+        Collections.sort(entries);
+        List<String> versions = new ArrayList<>();
+        for (CatalogEntry entry : entries) {
+            versions.add(entry.getVersion());
+        }
+        // Final is the release itself, while sp and other qualifiers such as redhat come after it
+        assertEquals("[1.0-RC1, 1.0-SNAPSHOT, 1.0, 1.0.Final, 1.0-sp1, 1.9-SNAPSHOT, 1.9, 1.10, 1.10.1, 2.0, 2.0.redhat-1]",
+                versions.toString());
+        assertTrue(CatalogEntry.compareVersions("1.0", "1.0-ga") != 0);
+    }
+
+    @Test
+    public void writeAndSearchCatalogIndex() throws Exception {
+        File testDir = new File(basedir, "target/test-catalog-builder-index");
+        Files.recursiveDelete(testDir);
+        CatalogBuilder builder = new CatalogBuilder(new File(testDir, "archetype-catalog.xml"));
+        builder.configure();
+        builder.addArchetype("io.fabric8.archetypes", "spring-boot-webmvc-archetype", "2.2", "Spring Boot with Spring MVC");
+        builder.addArchetype("io.fabric8.archetypes", "java-camel-cdi-archetype", "2.10", "Camel route using CDI");
+        builder.addArchetype("io.fabric8.archetypes", "java-camel-cdi-archetype", "2.9", "Older camel route using CDI");
+        builder.addArchetype("io.fabric8.archetypes", "spring-boot-camel-archetype", "2.2", "Spring Boot with a Camel route");
+        builder.close();
+
+        File indexFile = new File(testDir, CatalogIndex.INDEX_FILE_NAME);
+        assertEquals(indexFile, builder.getIndexFile());
+        CatalogIndex index = CatalogIndex.load(indexFile);
+        assertEquals(4, index.getArchetypes().size());
+        assertEquals("2.10", index.get("java-camel-cdi-archetype").getVersion());
+        assertEquals("Camel route using CDI", index.get("java-camel-cdi-archetype").getDescription());
+        assertNull(index.get("missing-archetype"));
+        assertEquals("[io.fabric8.archetypes:spring-boot-camel-archetype:2.2, io.fabric8.archetypes:spring-boot-webmvc-archetype:2.2]",
+                index.findByPrefix("spring-boot-").toString());
+        assertEquals(0, index.findByPrefix("z").size());
+        assertEquals(4, index.findByPrefix("").size());
+        assertEquals("[io.fabric8.archetypes:java-camel-cdi-archetype:2.9, io.fabric8.archetypes:java-camel-cdi-archetype:2.10, "
+                + "io.fabric8.archetypes:spring-boot-camel-archetype:2.2]", index.search("CAMEL route").toString());
+        assertEquals("[io.fabric8.archetypes:spring-boot-camel-archetype:2.2]", index.search("spring camel").toString());
+        assertEquals(0, index.search("spring cdi").size());
+    }
+
+    @Test
+    public void buildCatalogFromRepositoryJars() throws Exception {
+        File testDir = new File(basedir, "target/test-catalog-builder-repository");
+        Files.recursiveDelete(testDir);
+        File repository = new File(testDir, "repository");
+        File group = new File(repository, "org/example");
+        createJar(new File(group, "hello-archetype/1.0/hello-archetype-1.0.jar"), "hello-archetype", "1.0", true);
+        createJar(new File(group, "hello-archetype/1.1/hello-archetype-1.1.jar"), "hello-archetype", "1.1", true);
+        IOHelpers.writeFully(new File(group, "hello-archetype/1.1/hello-archetype-1.1.pom"),
+                "<project><artifactId>hello-archetype</artifactId><description>Hello &amp; welcome</description></project>");
+        createJar(new File(group, "hello-archetype/1.1/hello-archetype-1.1-sources.jar"), "hello-archetype", "1.1", true);
+        createJar(new File(group, "library/1.0/library-1.0.jar"), "library", "1.0", false);
+        // a jar whose central directory is corrupt is skipped rather than failing the build
+        File broken = new File(group, "broken-archetype/1.0/broken-archetype-1.0.jar");
+        createJar(broken, "broken-archetype", "1.0", true);
+        ArchetypeHelperTest.corruptCentralDirectory(broken);
+
+        CatalogBuilder builder = new CatalogBuilder(new File(testDir, "archetype-catalog.xml"));
+        builder.setParallelism(2);
+        builder.configure();
+        builder.addArchetypesFromRepository(repository);
+        builder.close();
+
+        List<CatalogEntry> archetypes = CatalogIndex.load(builder.getIndexFile()).getArchetypes();
+        assertEquals("[org.example:hello-archetype:1.0, org.example:hello-archetype:1.1]", archetypes.toString());
+        assertEquals("The hello-archetype archetype", archetypes.get(0).getDescription());
+        assertEquals("Hello & welcome", archetypes.get(1).getDescription());
+    }
+
+    @Test
+    public void writeCompressedCatalogWithChecksumAndETag() throws Exception {
+        File testDir = new File(basedir, "target/test-catalog-builder-artifacts");
+        Files.recursiveDelete(testDir);
+        File catalogFile = new File(testDir, "archetype-catalog.xml");
+        CatalogBuilder builder = new CatalogBuilder(catalogFile);
+        builder.configure();
+        builder.addArchetype("org.example", "hello-archetype", "1.0", "Hello");
+        builder.close();
+
+        CatalogArtifacts artifacts = CatalogArtifacts.write(catalogFile);
+        byte[] data = java.nio.file.Files.readAllBytes(catalogFile.toPath());
+        try (InputStream in = new GZIPInputStream(new FileInputStream(artifacts.getGzipFile()))) {
+            assertEquals(new String(data, StandardCharsets.UTF_8), IOHelpers.readFully(in));
+        }
+        assertEquals(CatalogCache.hash(data) + "  archetype-catalog.xml\n", IOHelpers.readFully(artifacts.getChecksumFile()));
+        assertEquals(artifacts.getETag(), IOHelpers.readFully(artifacts.getETagFile()));
+
+        // unchanged so nothing is written again
+        assertTrue(artifacts.getGzipFile().setLastModified(1000000L));
+        assertEquals(artifacts.getETag(), CatalogArtifacts.write(catalogFile).getETag());
+        assertEquals(1000000L, artifacts.getGzipFile().lastModified());
+
+        builder = new CatalogBuilder(catalogFile);
+        builder.configure();
+        builder.addArchetype("org.example", "hello-archetype", "1.1", "Hello");
+        builder.close();
+        CatalogArtifacts changed = CatalogArtifacts.write(catalogFile);
+        assertTrue(changed.getETag(), !artifacts.getETag().equals(changed.getETag()));
+        assertEquals(changed.getETag(), IOHelpers.readFully(changed.getETagFile()));
+    }
+
+    private static void createJar(File file, String artifactId, String version, boolean archetype) throws Exception {
+        file.getParentFile().mkdirs();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            if (archetype) {
+                zip.putNextEntry(new ZipEntry("META-INF/maven/archetype-metadata.xml"));
+                zip.write(("<archetype-descriptor name=\"The " + artifactId + " archetype\"/>").getBytes(StandardCharsets.UTF_8));
+                zip.putNextEntry(new ZipEntry("archetype-resources/pom.xml"));
+                zip.write("<project/>".getBytes(StandardCharsets.UTF_8));
+            }
+            zip.putNextEntry(new ZipEntry("META-INF/maven/org.example/" + artifactId + "/pom.properties"));
+            zip.write(("groupId=org.example\nartifactId=" + artifactId + "\nversion=" + version + "\n").getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+    }
+
+    private CatalogCache buildCatalog(File testDir, List<File> dirs, File bom, File cacheFile) throws Exception {
+        CatalogBuilder builder = new CatalogBuilder(new File(testDir, "archetype-catalog.xml"));
+        builder.setBomFile(bom);
+        builder.setCatalogCache(CatalogCache.load(cacheFile));
+        builder.configure();
+        builder.addArchetypeMetaData(dirs);
+        builder.close();
+        return builder.getCatalogCache();
+    }
+
+    private static PomMetadata read(String xml) throws Exception {
+        return PomMetadata.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
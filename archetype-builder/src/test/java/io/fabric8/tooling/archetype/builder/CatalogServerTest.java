@@ -0,0 +1,136 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CatalogServerTest {
+
+    private String basedir = System.getProperty("basedir", ".");
+    private File testDir = new File(basedir, "target/test-catalog-server");
+    private CatalogServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        Files.recursiveDelete(testDir);
+        writePom("hello-archetype", "1.0");
+        server = new CatalogServer(new File(testDir, "archetypes"), new File(testDir, "work"));
+        server.setCheckIntervalMillis(0);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void conditionalAndCompressedRequests() throws Exception {
+        HttpURLConnection connection = open(CatalogServer.CATALOG_PATH);
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getContentEncoding());
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        assertNotNull(etag);
+        assertNotNull(lastModified);
+        String catalog = IOHelpers.readFully(connection.getInputStream());
+        assertTrue(catalog, catalog.contains("<artifactId>hello-archetype</artifactId>"));
+
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        String gzipEtag = connection.getHeaderField("ETag");
+        assertTrue(gzipEtag, !etag.equals(gzipEtag));
+        try (InputStream in = new GZIPInputStream(connection.getInputStream())) {
+            assertEquals(catalog, IOHelpers.readFully(in));
+        }
+
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, connection.getResponseCode());
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestProperty("If-Modified-Since", lastModified);
+        assertEquals(304, connection.getResponseCode());
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestProperty("If-None-Match", "\"other\"");
+        assertEquals(200, connection.getResponseCode());
+
+        connection = open(CatalogServer.INDEX_PATH);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/json", connection.getContentType());
+        assertEquals("hello-archetype", CatalogIndex.load(connection.getInputStream()).get("hello-archetype").getArtifactId());
+
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestMethod("POST");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    @Test
+    public void regenerateOnlyWhenPomsChange() throws Exception {
+        HttpURLConnection connection = open(CatalogServer.CATALOG_PATH);
+        String etag = connection.getHeaderField("ETag");
+        connection.getInputStream().close();
+
+        // touching a pom without changing the catalog keeps the ETag
+        File pom = new File(testDir, "archetypes/hello-archetype/pom.xml");
+        assertTrue(pom.setLastModified(pom.lastModified() - 10000));
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, connection.getResponseCode());
+
+        writePom("hello-archetype", "1.1");
+        writePom("other-archetype", "1.0");
+        connection = open(CatalogServer.CATALOG_PATH);
+        connection.setRequestProperty("If-None-Match", etag);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(!etag.equals(connection.getHeaderField("ETag")));
+        String catalog = IOHelpers.readFully(connection.getInputStream());
+        assertTrue(catalog, catalog.contains("<version>1.1</version>"));
+        assertTrue(catalog, catalog.contains("<artifactId>other-archetype</artifactId>"));
+    }
+
+    private void writePom(String artifactId, String version) throws Exception {
+        File dir = new File(testDir, "archetypes/" + artifactId);
+        dir.mkdirs();
+        IOHelpers.writeFully(new File(dir, "pom.xml"), "<project><groupId>org.example</groupId><artifactId>" + artifactId
+                + "</artifactId><version>" + version + "</version></project>");
+    }
+
+    private HttpURLConnection open(String path) throws Exception {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setUseCaches(false);
+        return connection;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GitRepoArchetypeBuilderTest {
+
+    private String basedir = System.getProperty("basedir");
+    private File testDir;
+    private File outputDir;
+    private ArchetypeBuilder archetypeBuilder;
+
+    @Before
+    public void init() throws Exception {
+        if (basedir == null) {
+            basedir = ".";
+        }
+        testDir = new File(basedir, "target/test-git-repos").getCanonicalFile();
+        Files.recursiveDelete(testDir);
+        outputDir = new File(testDir, "archetypes");
+        outputDir.mkdirs();
+
+        archetypeBuilder = new ArchetypeBuilder();
+        archetypeBuilder.setIndentSize(4);
+    }
+
+    @Test
+    public void generateArchetypesConcurrently() throws Exception {
+        Properties repos = new Properties();
+        repos.put("hello-a", createGitRepo("hello-a").getPath());
+        repos.put("hello-b", createGitRepo("hello-b").getPath() + "|v1");
+        repos.put("hello-c", createGitRepo("hello-c").getPath());
+        File repoList = writeRepoList(repos);
+
+        archetypeBuilder.setParallelism(3);
+        List<String> dirs = new ArrayList<>();
+        archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, dirs);
+
+        for (String name : new String[]{"hello-a", "hello-b", "hello-c"}) {
+            assertTrue(name + " should be in " + dirs, dirs.contains(name));
+            assertArchetypeGenerated(name);
+        }
+    }
+
+    @Test
+    public void failingRepoDoesNotStopOtherRepos() throws Exception {
+        Properties repos = new Properties();
+        repos.put("hello-a", createGitRepo("hello-a").getPath());
+        repos.put("does-not-exist", new File(testDir, "does-not-exist").getPath());
+        File repoList = writeRepoList(repos);
+
+        archetypeBuilder.setParallelism(2);
+        List<String> dirs = new ArrayList<>();
+        try {
+            archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, dirs);
+            fail("Should have failed to clone the missing repo");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("does-not-exist"));
+        }
+        assertArchetypeGenerated("hello-a");
+    }
+
+    @Test
+    public void generateArchetypesUsingCachedClones() throws Exception {
+        File repoDir = createGitRepo("hello-a");
+        Properties repos = new Properties();
+        repos.put("hello-a", repoDir.getPath());
+        File repoList = writeRepoList(repos);
+
+        GitRepoCache repoCache = new GitRepoCache(new File(testDir, "git-cache"));
+        archetypeBuilder.setRepoCache(repoCache);
+        archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, new ArrayList<String>());
+        assertArchetypeGenerated("hello-a");
+        assertTrue("cached clone should keep its .git folder", new File(repoCache.getRepoDir(repoDir.getPath()), ".git").isDirectory());
+        assertFalse("cached clone should not be checked out", new File(repoCache.getRepoDir(repoDir.getPath()), "pom.xml").exists());
+
+        // a new commit should be fetched into the cached clone
+        IOHelpers.writeFully(new File(repoDir, "Changes.txt"), "some changes");
+        try (Git git = Git.open(repoDir)) {
+            git.add().addFilepattern("Changes.txt").call();
+            git.commit().setMessage("some changes").setAuthor("test", "test@example.com").call();
+        }
+        archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, new ArrayList<String>());
+        assertArchetypeGenerated("hello-a");
+        File resources = new File(outputDir, "hello-a-archetype/" + ArchetypeBuilder.ARCHETYPE_RESOURCES_PATH);
+        assertTrue("should include the new commit", new File(resources, "Changes.txt").isFile());
+        assertFalse("exported clone should not include .git", new File(testDir, "git-clones/hello-a-archetype/.git").exists());
+
+        // and we can still go back to the tag
+        repos.put("hello-a", repoDir.getPath() + "|v1");
+        repoList = writeRepoList(repos);
+        archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, new ArrayList<String>());
+        assertFalse("should not include commits after the tag", new File(resources, "Changes.txt").exists());
+    }
+
+    @Test
+    public void cachedCloneOnlyFetchesRequestedTag() throws Exception {
+        File repoDir = createGitRepo("hello-a");
+        try (Git git = Git.open(repoDir)) {
+            git.branchCreate().setName("other-branch").call();
+            git.tag().setName("other-tag").call();
+        }
+        Properties repos = new Properties();
+        repos.put("hello-a", repoDir.getPath() + "|v1");
+        File repoList = writeRepoList(repos);
+
+        GitRepoCache repoCache = new GitRepoCache(new File(testDir, "git-cache"));
+        archetypeBuilder.setRepoCache(repoCache);
+        archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, new ArrayList<String>());
+        assertArchetypeGenerated("hello-a");
+
+        try (Git git = Git.open(repoCache.getRepoDir(repoDir.getPath()))) {
+            Repository repository = git.getRepository();
+            assertNotNull("should have fetched the tag", repository.getRef("refs/tags/v1"));
+            assertNull("should not have fetched other tags", repository.getRef("refs/tags/other-tag"));
+            assertNull("should not have fetched other branches", repository.getRef("refs/remotes/origin/other-branch"));
+        }
+    }
+
+    @Test
+    public void singleRefCloneOfBranch() throws Exception {
+        File repoDir = createGitRepo("hello-a");
+        Properties repos = new Properties();
+        repos.put("hello-a", repoDir.getPath() + "|master");
+        repos.put("hello-b", createGitRepo("hello-b").getPath() + "|v1");
+        File repoList = writeRepoList(repos);
+
+        archetypeBuilder.generateArchetypesFromGitRepoList(repoList, outputDir, new ArrayList<String>());
+        assertArchetypeGenerated("hello-a");
+        assertArchetypeGenerated("hello-b");
+        assertFalse("clone should not include .git", new File(testDir, "git-clones/hello-a-archetype/.git").exists());
+    }
+
+    @Test
+    public void exportSymbolicLinks() throws Exception {
+        File repoDir = createGitRepo("hello-a");
+        java.nio.file.Files.createSymbolicLink(new File(repoDir, "readme-link.txt").toPath(), Paths.get("ReadMe.txt"));
+        try (Git git = Git.open(repoDir)) {
+            git.add().addFilepattern("readme-link.txt").call();
+            git.commit().setMessage("add a link").setAuthor("test", "test@example.com").call();
+        }
+
+        File exportDir = new File(testDir, "export");
+        new GitRepoCache(new File(testDir, "git-cache")).export(repoDir.getPath(), null, exportDir);
+        Path link = new File(exportDir, "readme-link.txt").toPath();
+        assertTrue("should be a symbolic link", java.nio.file.Files.isSymbolicLink(link));
+        assertEquals(Paths.get("ReadMe.txt"), java.nio.file.Files.readSymbolicLink(link));
+    }
+
+    protected void assertArchetypeGenerated(String name) {
+        File resources = new File(outputDir, name + "-archetype/" + ArchetypeBuilder.ARCHETYPE_RESOURCES_PATH);
+        assertTrue(name + " should have a pom.xml", new File(resources, "pom.xml").isFile());
+        assertTrue(name + " should have sources", new File(resources, "src/main/java/HelloInterface.java").isFile());
+    }
+
+    /**
+     * Creates a git repository containing the hello world example with a <code>v1</code> tag
+     */
+    protected File createGitRepo(String name) throws Exception {
+        File repoDir = new File(testDir, "repos/" + name);
+        Files.copy(new File(basedir, "src/test/examples/hello-world-example"), repoDir);
+        Files.recursiveDelete(new File(repoDir, "target"));
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("initial import").setAuthor("test", "test@example.com").call();
+            git.tag().setName("v1").call();
+        }
+        return repoDir;
+    }
+
+    protected File writeRepoList(Properties repos) throws IOException {
+        File file = new File(testDir, "repos.properties");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            repos.store(out, null);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PomValidatorTest {
+
+    private String basedir = System.getProperty("basedir", ".");
+
+    @Test
+    public void parallelValidationGivesTheSameReport() throws Exception {
+        File testDir = new File(basedir, "target/test-pom-validator");
+        Files.recursiveDelete(testDir);
+        File gitClones = new File(testDir, "git-clones");
+        for (int i = 0; i < 20; i++) {
+            writePom(new File(gitClones, "quickstart-" + (char) ('a' + i) + "/pom.xml"), "<project>\n"
+                    + "  <properties><camel.version>2.16." + i + "</camel.version><empty.version></empty.version></properties>\n"
+                    + "  <dependencies>\n"
+                    + "    <dependency><groupId>org.apache.camel</groupId><artifactId>camel-core</artifactId><version>${camel.version}</version></dependency>\n"
+                    + "    <dependency><groupId>org.example</groupId><artifactId>fixed</artifactId><version>1." + i + "</version></dependency>\n"
+                    + "    <dependency><groupId>org.example</groupId><artifactId>known</artifactId><version>${known.version}</version></dependency>\n"
+                    + "    <dependency><groupId>org.example</groupId><artifactId>empty</artifactId><version>${empty.version}</version></dependency>\n"
+                    + "  </dependencies>\n"
+                    + "  <build><plugins><plugin><artifactId>maven-jar-plugin</artifactId><version>2.6</version></plugin></plugins></build>\n"
+                    + "</project>\n");
+        }
+        writePom(new File(gitClones, "quickstart-broken/pom.xml"), "<project>");
+        File mavenDependencies = new File(testDir, "fabric8-maven-dependencies.xml");
+        writePom(mavenDependencies, "<project><properties><known.version>1.0</known.version></properties></project>");
+
+        List<String> serialWarnings = new ArrayList<>();
+        File serialReport = new File(testDir, "serial.json");
+        PomValidationReport report = validate(gitClones, mavenDependencies, 1, serialReport, serialWarnings);
+        assertEquals(21, report.getPoms());
+        assertEquals("{camel.version=2.16.19, empty.version=????}", report.getMissingProperties().toString());
+        assertEquals("quickstart quickstart-a pom.xml dependency org.example:fixed does not use a maven property for version; has value: 1.0",
+                serialWarnings.get(0));
+        assertEquals("quickstart quickstart-a pom.xml plugin maven-jar-plugin does not use a maven property for version; has value: 2.6",
+                serialWarnings.get(1));
+        // quickstart-a and quickstart-b have 4 findings each, then comes the broken pom
+        assertEquals(PomValidationReport.Finding.INVALID_POM, report.getFindings().get(8).getType());
+        assertEquals("quickstart-broken", report.getFindings().get(8).getProject());
+
+        List<String> parallelWarnings = new ArrayList<>();
+        File parallelReport = new File(testDir, "parallel.json");
+        validate(gitClones, mavenDependencies, 4, parallelReport, parallelWarnings);
+        assertEquals(serialWarnings, parallelWarnings);
+        assertEquals(IOHelpers.readFully(serialReport), IOHelpers.readFully(parallelReport));
+    }
+
+    @Test
+    public void scanPomInOnePass() throws Exception {
+        PomVersionScanner scanner = PomVersionScanner.scan(new ByteArrayInputStream((
+                "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n"
+                + "  <dependencies>\n"
+                + "    <dependency><groupId>org.apache.camel</groupId><artifactId>camel-core</artifactId><version>${camel.version}</version>\n"
+                + "      <exclusions><exclusion><groupId>ignored</groupId><version>0</version></exclusion></exclusions></dependency>\n"
+                + "    <dependency><artifactId>no-version</artifactId></dependency>\n"
+                + "  </dependencies>\n"
+                + "  <properties><camel.version>${camel.major}.1</camel.version><camel.major><![CDATA[2.16]]></camel.major>"
+                + "<camel.version>ignored</camel.version></properties>\n"
+                + "  <build><plugins><plugin><artifactId>maven-jar-plugin</artifactId><version> 2.6 </version>\n"
+                + "    <dependencies><dependency><groupId>g</groupId><artifactId>plugin-dependency</artifactId><version>1</version></dependency></dependencies>\n"
+                + "  </plugin></plugins></build>\n"
+                + "  <profiles><profile><properties><camel.version>other</camel.version><profile.only>x</profile.only></properties></profile></profiles>\n"
+                + "</project>\n").getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("{camel.version=${camel.major}.1, camel.major=2.16}", scanner.getProperties().toString());
+        assertEquals("[dependency org.apache.camel:camel-core:${camel.version}, dependency null:no-version:null, "
+                + "dependency g:plugin-dependency:1]", scanner.getDependencies().toString());
+        assertEquals("[plugin null:maven-jar-plugin: 2.6 ]", scanner.getPlugins().toString());
+        assertEquals(4, scanner.getArtifacts().size());
+        assertEquals("2.16.1 and ${unknown}", scanner.resolve("${camel.version} and ${unknown}"));
+    }
+
+    private static PomValidationReport validate(File gitClones, File mavenDependencies, int parallelism, File reportFile,
+                                                final List<String> warnings) throws Exception {
+        PomValidator validator = new PomValidator(gitClones) {
+            @Override
+            protected void warn(String message) {
+                warnings.add(message);
+            }
+        };
+        RemoteFileCache cache = new RemoteFileCache(new URL("http://localhost:1/pom.xml"), new File(gitClones, "../cache.xml"));
+        cache.setOffline(true);
+        cache.setPinnedFile(mavenDependencies);
+        validator.setMavenDependenciesPom(cache);
+        validator.setParallelism(parallelism);
+        validator.setReportFile(reportFile);
+        return validator.validate();
+    }
+
+    private static void writePom(File file, String text) throws Exception {
+        file.getParentFile().mkdirs();
+        IOHelpers.writeFully(file, text);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteFileCacheTest {
+
+    private String basedir = System.getProperty("basedir", ".");
+    private File testDir = new File(basedir, "target/test-remote-file-cache");
+    private HttpServer server;
+    private volatile String contents = "<project>1</project>";
+    private final AtomicInteger downloads = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        Files.recursiveDelete(testDir);
+        testDir.mkdirs();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/pom.xml", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String etag = "\"" + contents.hashCode() + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    downloads.incrementAndGet();
+                    byte[] body = contents.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void refreshConditionally() throws Exception {
+        RemoteFileCache cache = newCache("/pom.xml");
+        assertEquals("<project>1</project>", IOHelpers.readFully(cache.getFile()));
+        assertEquals(1, downloads.get());
+
+        // within the refresh interval the server is not asked at all
+        cache.setRefreshIntervalMillis(60000);
+        assertEquals("<project>1</project>", IOHelpers.readFully(cache.getFile()));
+        assertEquals(0, notModified.get());
+
+        cache.setRefreshIntervalMillis(0);
+        assertEquals("<project>1</project>", IOHelpers.readFully(cache.getFile()));
+        assertEquals(1, downloads.get());
+        assertEquals(1, notModified.get());
+
+        contents = "<project>2</project>";
+        assertEquals("<project>2</project>", IOHelpers.readFully(cache.getFile()));
+        assertEquals(2, downloads.get());
+    }
+
+    @Test
+    public void useLocalCopyWhenTheServerIsUnavailable() throws Exception {
+        RemoteFileCache cache = newCache("/pom.xml");
+        cache.getFile();
+
+        RemoteFileCache missing = newCache("/missing.xml");
+        try {
+            missing.getFile();
+            fail("Should not have a copy of a missing file");
+        } catch (IOException e) {
+            // expected
+        }
+
+        server.stop(0);
+        assertEquals("<project>1</project>", IOHelpers.readFully(cache.getFile()));
+    }
+
+    @Test
+    public void offlineUsesThePinnedCopy() throws Exception {
+        File pinned = new File(testDir, "pinned-pom.xml");
+        IOHelpers.writeFully(pinned, "<project>pinned</project>");
+        RemoteFileCache cache = newCache("/pom.xml");
+        cache.setOffline(true);
+        try {
+            cache.getFile();
+            fail("Should not fetch the file when offline");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("offline"));
+        }
+        cache.setPinnedFile(pinned);
+        assertEquals(pinned, cache.getFile());
+        assertEquals(0, downloads.get());
+    }
+
+    private RemoteFileCache newCache(String path) throws Exception {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), path);
+        RemoteFileCache answer = new RemoteFileCache(url, new File(testDir, "cache" + path));
+        answer.setRefreshIntervalMillis(0);
+        answer.setTimeoutMillis(2000);
+        return answer;
+    }
+}
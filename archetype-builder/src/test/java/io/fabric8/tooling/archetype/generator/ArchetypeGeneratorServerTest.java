@@ -0,0 +1,221 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import io.fabric8.utils.Files;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchetypeGeneratorServerTest {
+
+    private File testDir = new File(ArchetypeHelperTest.basedir(), "target/test-archetype-generator-server");
+    private ArchetypeGeneratorServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void generateProjectAsZip() throws Exception {
+        Files.recursiveDelete(testDir);
+        File archetypeFile = ArchetypeHelperTest.createArchetypeJar(new File(testDir, "archetypes/example-archetype-1.0.jar"));
+        File expectedDir = new File(testDir, "expected");
+        ArchetypeHelper expected = new ArchetypeHelper(archetypeFile, expectedDir, "org.example", "hello", "1.0", "Hello World", null);
+        expected.setPackageName("org.example.hello");
+        Map<String, String> overrides = new TreeMap<>();
+        overrides.put("greeting", "Howdy");
+        expected.setOverrideProperties(overrides);
+        expected.execute();
+
+        server = new ArchetypeGeneratorServer(new File(testDir, "archetypes"));
+        server.setTemplateCache(new ArchetypeTemplateCache(1024 * 1024));
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        String query = "archetype=example-archetype&groupId=org.example&artifactId=hello&version=1.0"
+                + "&package=org.example.hello&name=Hello%20World&greeting=Howdy";
+        for (int i = 0; i < 2; i++) {
+            HttpURLConnection connection = open("?" + query);
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("application/zip", connection.getContentType());
+            assertEquals(ArchetypeHelperTest.readFiles(expectedDir), readZip(connection, "hello/"));
+        }
+
+        HttpURLConnection connection = open("");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(query.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(ArchetypeHelperTest.readFiles(expectedDir), readZip(connection, "hello/"));
+        assertEquals(3, server.getGenerated());
+
+        assertEquals(404, open("?archetype=missing-archetype&groupId=org.example&artifactId=hello").getResponseCode());
+        assertEquals(400, open("?archetype=example-archetype&groupId=org.example").getResponseCode());
+        assertEquals(400, open("?archetype=example-archetype&groupId=org.example&artifactId=../hello").getResponseCode());
+    }
+
+    @Test
+    public void rejectPathsInProperties() throws Exception {
+        Files.recursiveDelete(testDir);
+        ArchetypeHelperTest.createArchetypeJar(new File(testDir, "archetypes/example-archetype-1.0.jar"));
+        server = new ArchetypeGeneratorServer(new File(testDir, "archetypes"));
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        String query = "?archetype=example-archetype&groupId=org.example&artifactId=hello";
+        assertEquals(400, open(query + "&package=org..example").getResponseCode());
+        assertEquals(400, open(query + "&package=org/example").getResponseCode());
+        assertEquals(400, open(query + "&version=../1.0").getResponseCode());
+        assertEquals(400, open(query + "&rootArtifactId=../../evil").getResponseCode());
+        assertEquals(400, open(query + "&greeting=..%5Cevil").getResponseCode());
+        assertEquals(400, open("?archetype=%zz&groupId=org.example&artifactId=hello").getResponseCode());
+        assertEquals(0, server.getGenerated());
+        assertEquals(200, open(query + "&package=org.example.hello&greeting=Howdy").getResponseCode());
+    }
+
+    @Test
+    public void dropConnectionWhenGenerationFails() throws Exception {
+        Files.recursiveDelete(testDir);
+        ArchetypeHelperTest.createArchetypeJar(new File(testDir, "archetypes/example-archetype-1.0.jar"));
+        server = new ArchetypeGeneratorServer(new File(testDir, "archetypes")) {
+            @Override
+            protected ArchetypeHelper createHelper(File archetypeFile, String groupId, String artifactId, String version,
+                                                   String name, String description) {
+                return new ArchetypeHelper(archetypeFile, null, groupId, artifactId, version, name, description) {
+                    @Override
+                    public int execute(OutputSink sink) throws IOException {
+                        try (OutputStream out = sink.openFile("big.txt")) {
+                            out.write(new byte[256 * 1024]);
+                        }
+                        throw new IOException("Simulated failure");
+                    }
+                };
+            }
+        };
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        HttpURLConnection connection = open("?archetype=example-archetype&groupId=org.example&artifactId=hello");
+        assertEquals(200, connection.getResponseCode());
+        try {
+            readZip(connection, "hello/");
+            fail("Should not read a complete zip when the generation failed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, server.getGenerated());
+    }
+
+    @Test
+    public void rejectRequestsWhenBusy() throws Exception {
+        Files.recursiveDelete(testDir);
+        ArchetypeHelperTest.createArchetypeJar(new File(testDir, "archetypes/example-archetype-1.0.jar"));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        server = new ArchetypeGeneratorServer(new File(testDir, "archetypes")) {
+            @Override
+            protected File findArchetype(String artifactId, String version) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.findArchetype(artifactId, version);
+            }
+        };
+        server.setMaxConcurrent(1);
+        server.setMaxQueued(0);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Map<String, String>> first = executor.submit(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() throws Exception {
+                    HttpURLConnection connection = open("?archetype=example-archetype&groupId=org.example&artifactId=hello");
+                    assertEquals(200, connection.getResponseCode());
+                    return readZip(connection, "hello/");
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            HttpURLConnection busy = open("?archetype=example-archetype&groupId=org.example&artifactId=other");
+            assertEquals(503, busy.getResponseCode());
+            assertEquals("1", busy.getHeaderField("Retry-After"));
+            assertEquals(1, server.getRejected());
+
+            release.countDown();
+            assertTrue(first.get(10, TimeUnit.SECONDS).containsKey("pom.xml"));
+            assertEquals(1, server.getGenerated());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private HttpURLConnection open(String query) throws Exception {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(),
+                ArchetypeGeneratorServer.GENERATE_PATH + query);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static Map<String, String> readZip(HttpURLConnection connection, String prefix) throws Exception {
+        Map<String, String> files = new TreeMap<>();
+        try (ZipInputStream zip = new ZipInputStream(connection.getInputStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                assertTrue(entry.getName(), entry.getName().startsWith(prefix));
+                if (!entry.isDirectory()) {
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = zip.read(buffer)) > 0) {
+                        data.write(buffer, 0, count);
+                    }
+                    files.put(entry.getName().substring(prefix.length()), new String(data.toByteArray(), StandardCharsets.ISO_8859_1));
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import io.fabric8.utils.Files;
+import io.fabric8.utils.IOHelpers;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArchetypeHelperTest {
+
+    private static final String NL = System.lineSeparator();
+
+    private ArchetypeHelper helper = new ArchetypeHelper(new File("target/does-not-exist.jar"), new File("target"),
+            "org.example", "hello", "1.0", null, null);
+
+    @Test
+    public void transformsLineByLine() throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("greeting", "Hello");
+        helper.setPackageName("org.example.hello");
+
+        String text = "## a velocity comment\r\n#set( $symbol_dollar = '$' )\npackage ${package};\r\n\n"
+                + "// ${greeting} $artifactId ${D}{notReplaced}\n\n\n";
+        assertEquals("package org.example.hello;" + NL + NL + "// Hello hello ${notReplaced}" + NL,
+                helper.transformContents(text, properties));
+    }
+
+    @Test
+    public void transformsLinesLongerThanTheBuffer() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append("$version ");
+        }
+        String line = builder.toString();
+        String expected = line.replace("$version", "1.0");
+        assertEquals(expected + NL + expected + NL,
+                helper.transformContents(line + "\n" + line, new HashMap<String, String>()));
+    }
+
+    @Test
+    public void keepsCarriageReturnsWhichAreNotLineEndings() throws Exception {
+        assertEquals("a\rb" + NL, helper.removeInvalidHeaderCommentsAndProcessVelocityMacros("a\rb\r\n"));
+        assertEquals(NL, helper.removeInvalidHeaderCommentsAndProcessVelocityMacros(""));
+        assertEquals("", helper.removeInvalidHeaderCommentsAndProcessVelocityMacros("\n\r\n"));
+    }
+
+    @Test
+    public void generateFromCachedTemplate() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/template");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        File expectedDir = new File(testDir, "expected");
+        newHelper(archetypeFile, expectedDir, "hello").execute();
+
+        ArchetypeTemplateCache cache = new ArchetypeTemplateCache(1024 * 1024);
+        for (String name : new String[]{"first", "second"}) {
+            File outputDir = new File(testDir, name);
+            ArchetypeHelper cachedHelper = newHelper(archetypeFile, outputDir, "hello");
+            cachedHelper.setTemplateCache(cache);
+            cachedHelper.execute();
+            assertEquals(readFiles(expectedDir), readFiles(outputDir));
+        }
+        assertEquals(1, cache.getCount());
+        assertSame(cache.get(archetypeFile), cache.get(archetypeFile));
+
+        Map<String, String> files = readFiles(expectedDir);
+        assertEquals("package org.example.hello;" + NL + NL + "// Hello hello ${D} ${unknown}" + NL,
+                files.get("src/main/java/org/example/hello/App.java"));
+        assertTrue(files.toString(), files.containsKey("src/main/resources/Hello.properties"));
+    }
+
+    @Test
+    public void generateConcurrently() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/parallel");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        File expectedDir = new File(testDir, "expected");
+        newHelper(archetypeFile, expectedDir, "hello").execute();
+
+        ArchetypeTemplateCache cache = new ArchetypeTemplateCache(1024 * 1024);
+        for (String name : new String[]{"zip", "template"}) {
+            File outputDir = new File(testDir, name);
+            ArchetypeHelper parallelHelper = newHelper(archetypeFile, outputDir, "hello");
+            parallelHelper.setParallelism(4);
+            if (name.equals("template")) {
+                parallelHelper.setTemplateCache(cache);
+            }
+            parallelHelper.execute();
+            assertEquals(readFiles(expectedDir), readFiles(outputDir));
+        }
+    }
+
+    @Test
+    public void generateIntoZipStream() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/zip-sink");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        File expectedDir = new File(testDir, "expected");
+        ArchetypeHelper expectedHelper = new ArchetypeHelper(archetypeFile, expectedDir, "org.example", "hello", "1.0", "Hello World", null);
+        expectedHelper.execute();
+
+        ArchetypeTemplateCache cache = new ArchetypeTemplateCache(1024 * 1024);
+        for (ArchetypeTemplateCache templateCache : new ArchetypeTemplateCache[]{null, cache, cache}) {
+            File outputDir = new File(testDir, "unused");
+            ArchetypeHelper zipHelper = new ArchetypeHelper(archetypeFile, outputDir, "org.example", "hello", "1.0", "Hello World", null);
+            zipHelper.setTemplateCache(templateCache);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ZipOutputSink sink = new ZipOutputSink(bytes, "hello/")) {
+                zipHelper.execute(sink);
+            }
+            assertTrue("Nothing should be written to " + outputDir, !outputDir.exists());
+
+            Map<String, String> files = new TreeMap<>();
+            List<String> directories = new ArrayList<>();
+            try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    assertTrue(entry.getName(), entry.getName().startsWith("hello/"));
+                    String name = entry.getName().substring("hello/".length());
+                    if (entry.isDirectory()) {
+                        directories.add(name);
+                    } else {
+                        ByteArrayOutputStream data = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[8192];
+                        int count;
+                        while ((count = zip.read(buffer)) > 0) {
+                            data.write(buffer, 0, count);
+                        }
+                        files.put(name, new String(data.toByteArray(), StandardCharsets.ISO_8859_1));
+                    }
+                }
+            }
+            assertEquals(readFiles(expectedDir), files);
+            assertTrue(files.get("pom.xml"), files.get("pom.xml").contains("<name>Hello World</name>"));
+            assertTrue(directories.toString(), directories.contains("src/test/java/org/example/hello/"));
+            assertTrue(directories.toString(), directories.contains("src/test/resources/"));
+        }
+    }
+
+    @Test
+    public void planWithoutWritingAnything() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/plan");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        File outputDir = new File(testDir, "output");
+        ArchetypePlan plan = newHelper(archetypeFile, outputDir, "hello").plan();
+        assertTrue("Nothing should be written to " + outputDir, !outputDir.exists());
+
+        File expectedDir = new File(testDir, "expected");
+        newHelper(archetypeFile, expectedDir, "hello").execute();
+        List<String> paths = new ArrayList<>();
+        for (ArchetypePlan.PlannedFile file : plan.getFiles()) {
+            paths.add(file.getPath());
+        }
+        Collections.sort(paths);
+        assertEquals(new ArrayList<>(readFiles(expectedDir).keySet()), paths);
+        assertEquals("org/example/hello", plan.getPackageDir());
+        assertTrue(plan.getDirectories().toString(), plan.getDirectories().contains("src/test/java/org/example/hello"));
+
+        ArchetypePlan.PlannedFile app = plan.getFile("src/main/java/org/example/hello/App.java");
+        assertEquals(false, app.isBinary());
+        assertEquals(new HashSet<>(Arrays.asList("package", "greeting", "artifactId")), app.getProperties());
+        // ${D}{D} is how the archetype escapes a literal ${D} so only ${unknown} is left by mistake
+        assertEquals(Collections.singleton("${unknown}"), app.getUnresolved());
+        // ${project.name} in the pom is a maven property
+        assertTrue(plan.getFile("pom.xml").getUnresolved().isEmpty());
+
+        ArchetypePlan.PlannedFile properties = plan.getFile("src/main/resources/Hello.properties");
+        assertEquals("src/main/resources/__greeting__.properties", properties.getResourceName());
+        assertEquals(Collections.singleton("greeting"), properties.getProperties());
+
+        ArchetypePlan.PlannedFile logo = plan.getFile("src/main/webapp/logo.gif");
+        assertTrue(logo.isBinary());
+        assertEquals(100000, logo.getSize());
+        assertEquals(app.getUnresolved(), plan.getUnresolved());
+    }
+
+    @Test
+    public void generateBatch() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/batch");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        List<ArchetypeHelper> projects = new ArrayList<>();
+        for (String artifactId : new String[]{"alpha", "beta", "gamma"}) {
+            newHelper(archetypeFile, new File(testDir, "expected/" + artifactId), artifactId).execute();
+            ArchetypeHelper project = newHelper(archetypeFile, new File(testDir, "batch/" + artifactId), artifactId);
+            project.setOverrideProperties(Collections.singletonMap("greeting", "Hi " + artifactId));
+            projects.add(project);
+        }
+        projects.get(0).setOverrideProperties(new HashMap<String, String>());
+
+        ArchetypeBatchGenerator.BatchReport report = new ArchetypeBatchGenerator(archetypeFile).generate(projects);
+        assertEquals(3, report.getProjects().size());
+        for (ArchetypeBatchGenerator.ProjectReport project : report.getProjects()) {
+            assertEquals(5, project.getFiles());
+            assertTrue(project.getBytes() > 100000);
+        }
+        assertEquals(readFiles(new File(testDir, "expected/alpha")), readFiles(new File(testDir, "batch/alpha")));
+        Map<String, String> beta = readFiles(new File(testDir, "batch/beta"));
+        assertEquals("greeting=Hi beta" + NL, beta.get("src/main/resources/Hi beta.properties"));
+        assertTrue(beta.toString(), beta.get("pom.xml").contains("<artifactId>beta</artifactId>"));
+    }
+
+    @Test
+    public void parseDescriptorProperties() throws Exception {
+        String xml = "<archetype-descriptor xmlns=\"" + ArchetypeDescriptor.ARCHETYPE_DESCRIPTOR_URI + "\" name=\"example\">\n"
+                + "  <requiredProperties>\n"
+                + "    <requiredProperty key=\"greeting\"><defaultValue>Hello <![CDATA[World]]></defaultValue></requiredProperty>\n"
+                + "    <requiredProperty key=\"name\"/>\n"
+                + "    <requiredProperty key=\"empty\"><defaultValue></defaultValue></requiredProperty>\n"
+                + "    <requiredProperty key=\"twice\"><defaultValue>a</defaultValue><defaultValue>b</defaultValue></requiredProperty>\n"
+                + "  </requiredProperties>\n"
+                + "  <fileSets><requiredProperty key=\"ignored\"/></fileSets>\n"
+                + "</archetype-descriptor>\n";
+        Map<String, String> properties = new TreeMap<>();
+        ArchetypeDescriptor.parseProperties(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), properties);
+        assertEquals("{empty=, greeting=Hello World, name=HelloWorld, twice=}", properties.toString());
+    }
+
+    @Test
+    public void descriptorIsCachedUntilTheJarChanges() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/descriptor");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        ArchetypeDescriptor descriptor = newHelper(archetypeFile, testDir, "hello").getDescriptor();
+        assertEquals("{greeting=Hello}", descriptor.getProperties().toString());
+        assertEquals(5, descriptor.getResources().size());
+        assertSame(descriptor, ArchetypeDescriptor.load(archetypeFile));
+
+        assertTrue(archetypeFile.setLastModified(archetypeFile.lastModified() - 10000));
+        assertTrue(descriptor != ArchetypeDescriptor.load(archetypeFile));
+    }
+
+    @Test
+    public void readCentralDirectory() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/central-directory");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+
+        try (ZipFile zip = new ZipFile(archetypeFile);
+             FileChannel channel = FileChannel.open(archetypeFile.toPath(), StandardOpenOption.READ)) {
+            ZipCentralDirectory directory = ZipCentralDirectory.read(channel);
+            assertEquals(zip.size(), directory.getEntries().size());
+            for (ZipCentralDirectory.Entry entry : directory.getEntries()) {
+                ZipEntry zipEntry = zip.getEntry(entry.getName());
+                assertEquals(zipEntry.getSize(), entry.getSize());
+                assertEquals(zipEntry.getCrc(), entry.getCrc());
+                assertEquals(zipEntry.getMethod(), entry.getMethod());
+            }
+
+            ZipCentralDirectory.Entry gif = directory.getEntry("archetype-resources/src/main/webapp/logo.gif");
+            assertTrue(gif.isStored());
+            File file = new File(testDir, "logo.gif");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                ZipCentralDirectory.transferStored(channel, gif, out.getChannel());
+            }
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            IOHelpers.copy(zip.getInputStream(zip.getEntry(gif.getName())), expected);
+            assertArrayEquals(expected.toByteArray(), java.nio.file.Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void rejectCorruptCentralDirectory() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/corrupt-central-directory");
+        Files.recursiveDelete(testDir);
+        File archetypeFile = createArchetypeJar(new File(testDir, "example-archetype.jar"));
+        corruptCentralDirectory(archetypeFile);
+
+        try (FileChannel channel = FileChannel.open(archetypeFile.toPath(), StandardOpenOption.READ)) {
+            ZipCentralDirectory.read(channel);
+            fail("Should not read a central directory entry which is longer than the central directory");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void templateCacheEvictsLeastRecentlyUsed() throws Exception {
+        File testDir = new File(basedir(), "target/test-archetype-helper/evict");
+        Files.recursiveDelete(testDir);
+        File first = createArchetypeJar(new File(testDir, "first-archetype.jar"));
+        File second = createArchetypeJar(new File(testDir, "second-archetype.jar"));
+
+        ArchetypeTemplate template = newHelper(first, testDir, "hello").compileTemplate();
+        ArchetypeTemplateCache cache = new ArchetypeTemplateCache(template.getSize() * 3 / 2);
+        cache.put(first, template);
+        cache.put(second, newHelper(second, testDir, "hello").compileTemplate());
+        assertEquals(1, cache.getCount());
+        assertEquals(null, cache.get(first));
+        assertTrue(cache.get(second) != null);
+
+        // a changed jar is compiled again
+        assertTrue(second.setLastModified(second.lastModified() - 10000));
+        assertEquals(null, cache.get(second));
+        assertEquals(0, cache.getSize());
+    }
+
+    protected ArchetypeHelper newHelper(File archetypeFile, File outputDir, String artifactId) {
+        ArchetypeHelper answer = new ArchetypeHelper(archetypeFile, outputDir, "org.example", artifactId, "1.0", null, null);
+        answer.setPackageName("org.example." + artifactId);
+        return answer;
+    }
+
+    protected static File basedir() {
+        String basedir = System.getProperty("basedir");
+        return new File(basedir != null ? basedir : ".");
+    }
+
+    /**
+     * Sets the name length of the last entry of the central directory of the zip file to more than is left of
+     * the central directory
+     */
+    public static void corruptCentralDirectory(File file) throws IOException {
+        byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+        for (int i = bytes.length - 4; i >= 0; i--) {
+            if (bytes[i] == 'P' && bytes[i + 1] == 'K' && bytes[i + 2] == 1 && bytes[i + 3] == 2) {
+                bytes[i + 28] = (byte) 0xff;
+                bytes[i + 29] = (byte) 0xff;
+                java.nio.file.Files.write(file.toPath(), bytes);
+                return;
+            }
+        }
+        throw new IOException("No central directory in " + file);
+    }
+
+    /**
+     * Creates a small archetype jar with text and binary files, a file name property and a required property
+     */
+    protected static File createArchetypeJar(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            addEntry(zip, "META-INF/maven/archetype-metadata.xml", "<archetype-descriptor xmlns=\"http://maven.apache.org/plugins/maven-archetype-plugin/archetype-descriptor/1.0.0\">\n"
+                    + "  <requiredProperties>\n"
+                    + "    <requiredProperty key=\"greeting\"><defaultValue>Hello</defaultValue></requiredProperty>\n"
+                    + "  </requiredProperties>\n"
+                    + "</archetype-descriptor>\n");
+            addEntry(zip, "archetype-resources/pom.xml", "<project>\n  <groupId>${groupId}</groupId>\n  <artifactId>${artifactId}</artifactId>\n"
+                    + "  <version>${version}</version>\n  <name>${greeting}</name>\n  <description>${project.name}</description>\n</project>\n");
+            addEntry(zip, "archetype-resources/src/main/java/App.java", "## a comment\npackage ${package};\r\n\r\n"
+                    + "// ${greeting} $artifactId ${D}{D} ${unknown}\n\n");
+            addEntry(zip, "archetype-resources/src/main/resources/__greeting__.properties", "greeting=${greeting}\n");
+            zip.putNextEntry(new ZipEntry("archetype-resources/src/main/resources/icon.png"));
+            zip.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '$', '{', 'x', '}', 0, (byte) 0xff});
+            zip.closeEntry();
+
+            // a stored (uncompressed) binary file
+            byte[] gif = new byte[100000];
+            new Random(42).nextBytes(gif);
+            CRC32 crc = new CRC32();
+            crc.update(gif);
+            ZipEntry stored = new ZipEntry("archetype-resources/src/main/webapp/logo.gif");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(gif.length);
+            stored.setCompressedSize(gif.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(gif);
+            zip.closeEntry();
+        }
+        return file;
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, String text) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(text.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    /**
+     * Returns the contents of all the files in the directory keyed by their relative path
+     */
+    protected static Map<String, String> readFiles(File dir) throws IOException {
+        Map<String, String> answer = new TreeMap<>();
+        readFiles(dir, "", answer);
+        return answer;
+    }
+
+    private static void readFiles(File dir, String path, Map<String, String> answer) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = path + file.getName();
+                if (file.isDirectory()) {
+                    readFiles(file, name + "/", answer);
+                } else {
+                    answer.put(name, new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package io.fabric8.tooling.archetype.generator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class VariableReplacerTest {
+
+    private VariableReplacer replacer = new VariableReplacer()
+            .addVariable("package", "org.example")
+            .addBareVariable("groupId", "org.example")
+            .addBareVariable("version", "1.0")
+            .addVariable("name", "Hello $world \\ ${version}");
+
+    @Test
+    public void replacesBracedVariables() throws Exception {
+        assertEquals("package org.example;", replacer.replace("package ${package};"));
+        assertEquals("org.example:1.0", replacer.replace("${groupId}:${version}"));
+    }
+
+    @Test
+    public void replacesBareVariablesOnlyOnNameBoundaries() throws Exception {
+        assertEquals("1.0/1.0.x", replacer.replace("$version/$version.x"));
+        assertEquals("$versionNumber $versions", replacer.replace("$versionNumber $versions"));
+    }
+
+    @Test
+    public void valuesAreNotReplacedAgain() throws Exception {
+        assertEquals("Hello $world \\ ${version}!", replacer.replace("${name}!"));
+    }
+
+    @Test
+    public void unknownVariablesAreLeftAlone() throws Exception {
+        assertEquals("${unknown} $unknown ${ $ ${package", replacer.replace("${unknown} $unknown ${ $ ${package"));
+        assertEquals("costs $5$", replacer.replace("costs $5$"));
+        String text = "no variables here";
+        assertSame(text, replacer.replace(text));
+    }
+
+    @Test
+    public void firstRegistrationWins() throws Exception {
+        replacer.addVariable("package", "other");
+        assertEquals("org.example", replacer.replace("${package}"));
+    }
+}
@@ -17,6 +17,8 @@ package io.fabric8.tooling.archetype.generator;
 
 import io.fabric8.kubernetes.api.KubernetesHelper;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.tooling.archetype.builder.CatalogEntry;
+import io.fabric8.tooling.archetype.builder.CatalogIndex;
 import io.fabric8.utils.DomHelper;
 import io.fabric8.utils.Files;
 import io.fabric8.utils.IOHelpers;
@@ -43,6 +45,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -150,6 +153,20 @@ public class ArchetypeTest {
     }
 
     protected List<String> getArchetypesFromJar() throws IOException {
+        // prefer the JSON index of the catalog which does not need a DOM parse
+        URL indexUrl = getClass().getClassLoader().getResource(CatalogIndex.INDEX_FILE_NAME);
+        if (indexUrl != null) {
+            SortedSet<String> artifactIds = new TreeSet<>();
+            try (InputStream in = indexUrl.openStream()) {
+                for (CatalogEntry entry : CatalogIndex.load(in).getArchetypes()) {
+                    if (Strings.isNotBlank(entry.getArtifactId())) {
+                        artifactIds.add(entry.getArtifactId());
+                    }
+                }
+            }
+            return new ArrayList<>(artifactIds);
+        }
+
         String entryName = "archetype-catalog.xml";
         URL url = getClass().getClassLoader().getResource(entryName);
         assertThat(url).describedAs("Could not find resource " + entryName + " on the classpath!").isNotNull();
@@ -215,10 +232,9 @@ public class ArchetypeTest {
         File outDir = new File(projectsOutputFolder, artifactId);
 
         LOG.info("Creating Archetype " + groupId + ":" + artifactId + ":" + version);
-        Map<String, String> properties = new ArchetypeHelper(archetypejar, outDir, groupId, artifactId, version, null, null).parseProperties();
-        LOG.info("Has preferred properties: " + properties);
-
         ArchetypeHelper helper = new ArchetypeHelper(archetypejar, outDir, groupId, artifactId, version, null, null);
+        LOG.info("Has preferred properties: " + helper.getDescriptor().getProperties());
+
         helper.setPackageName(packageName);
 
         // lets override some properties